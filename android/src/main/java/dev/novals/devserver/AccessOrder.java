@@ -0,0 +1,124 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The order in which a bundle's files are requested when it loads, kept in
+ * {@code .meta/<name>.access.json}. The first load of a bundle records it; later launches replay
+ * it to read files ahead of the WebView. An install of the bundle deletes the file, so each
+ * version is learned afresh.
+ */
+public class AccessOrder {
+
+    /** How long after its first request a load is recorded. */
+    static final long RECORD_WINDOW_MILLIS = 10_000;
+    static final int MAX_PATHS = 512;
+
+    private final File file;
+    private volatile List<String> paths;
+    private Set<String> recording;
+
+    private AccessOrder(File file, List<String> paths) {
+        this.file = file;
+        this.paths = paths;
+    }
+
+    /** The order saved in {@code file}, or an empty one that can be recorded into it. */
+    public static AccessOrder load(File file) {
+        if (!file.isFile()) {
+            return new AccessOrder(file, Collections.emptyList());
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            JSONArray list = new JSONObject(BundleManifest.readFully(in)).getJSONArray("paths");
+            List<String> paths = new ArrayList<>(list.length());
+            for (int i = 0; i < list.length(); i++) {
+                paths.add(list.getString(i));
+            }
+            return new AccessOrder(file, Collections.unmodifiableList(paths));
+        } catch (Exception e) {
+            file.delete();
+            return new AccessOrder(file, Collections.emptyList());
+        }
+    }
+
+    /** Request paths in first-request order; empty until a load has been recorded. */
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    public boolean isLearned() {
+        return !paths.isEmpty();
+    }
+
+    /** Starts recording unless an order is known or a recording runs; returns whether it started. */
+    public synchronized boolean startRecording() {
+        if (isLearned() || recording != null) {
+            return false;
+        }
+        recording = new LinkedHashSet<>();
+        return true;
+    }
+
+    /** Notes a served request path while recording. */
+    public void record(String path) {
+        if (isLearned()) {
+            return;
+        }
+        synchronized (this) {
+            if (recording != null && recording.size() < MAX_PATHS) {
+                recording.add(path);
+            }
+        }
+    }
+
+    /** Ends the recording and saves what it captured. */
+    public void finishRecording() {
+        List<String> captured;
+        synchronized (this) {
+            if (recording == null || recording.isEmpty()) {
+                recording = null;
+                return;
+            }
+            captured = Collections.unmodifiableList(new ArrayList<>(recording));
+            recording = null;
+            paths = captured;
+        }
+        try {
+            save(captured);
+        } catch (IOException e) {
+            com.getcapacitor.Logger.warn("Failed to save access order to " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void save(List<String> captured) throws IOException {
+        try {
+            JSONObject root = new JSONObject();
+            root.put("paths", new JSONArray(captured));
+            file.getParentFile().mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                writer.write(root.toString());
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to write " + file);
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -4,11 +4,14 @@ import android.content.Context;
 import com.getcapacitor.Logger;
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.DigestInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
@@ -17,79 +20,828 @@ import java.util.zip.ZipInputStream;
 public class AssetManager {
 
     private static final String ASSET_DIR_NAME = "capacitor_dev_server_assets";
-    private final Context context;
+    private static final String DOWNLOAD_DIR_NAME = "capacitor_dev_server_downloads";
+    private static final String META_DIR_NAME = ".meta";
+    private static final String STAGING_PREFIX = ".staging-";
+    private static final String TRASH_PREFIX = ".trash-";
+    private static final String ALTERNATE_SUFFIX = "~next";
+    // Directories waiting to be freed by the background sweep; a rename moves them here instantly.
+    private static final String DELETED_DIR_NAME = ".deleted";
+    private static final String DELETED_MANIFEST_NAME = "files.json";
+    private static final Object sweepLock = new Object();
+    private static final java.util.concurrent.atomic.AtomicBoolean sweepScheduled = new java.util.concurrent.atomic.AtomicBoolean();
+    // Staging directories of installs running in this process; recovery must leave them alone.
+    private static final java.util.Set<String> activeStaging = java.util.Collections.synchronizedSet(new java.util.HashSet<>());
+    private static final int BUFFER_SIZE = 65536;
+    private static final String BLOB_DIR_NAME = "capacitor_dev_server_blobs";
+    private final Storage storage;
+    private final BlobStore blobStore;
+    private boolean precompressOnInstall;
+    private boolean parallelExtraction;
+    private boolean archiveInstall;
+    private long storageQuotaBytes;
+    private long maxBundleAgeMillis;
+
+    public static class DeltaResult {
+        public int filesDownloaded;
+        public int filesReused;
+        public long bytesDownloaded;
+        public long bytesSaved;
+    }
+
+    /** Where bundles, blobs and partial downloads are kept; an app {@link Context} on a device. */
+    public interface Storage {
+        File getFilesDir();
+
+        File getCacheDir();
+    }
 
     public AssetManager(Context context) {
-        this.context = context;
+        this(new Storage() {
+            @Override
+            public File getFilesDir() {
+                return context.getFilesDir();
+            }
+
+            @Override
+            public File getCacheDir() {
+                return context.getCacheDir();
+            }
+        });
+    }
+
+    public AssetManager(Storage storage) {
+        this.storage = storage;
+        this.blobStore = new BlobStore(new File(storage.getFilesDir(), BLOB_DIR_NAME));
+    }
+
+    public void setPrecompressOnInstall(boolean precompressOnInstall) {
+        this.precompressOnInstall = precompressOnInstall;
+    }
+
+    public void setParallelExtraction(boolean parallelExtraction) {
+        this.parallelExtraction = parallelExtraction;
+    }
+
+    /**
+     * Installs new bundles as archive bundles: the verified ZIP is moved into the bundle directory
+     * unextracted and served from there by {@link LocalServer}. Delta updates still extract.
+     */
+    public void setArchiveInstall(boolean archiveInstall) {
+        this.archiveInstall = archiveInstall;
+    }
+
+    /** Whether a bundle is served from its ZIP; see {@link #setArchiveInstall}. */
+    public boolean isArchiveBundle(String assetName) {
+        return new File(new File(getAssetsDir(), assetName), BundleIndex.ARCHIVE_FILE_NAME).isFile();
+    }
+
+    /**
+     * Limits for {@link #enforceStorageLimits}: total bundle size in bytes and time since last use
+     * in milliseconds. {@code 0} disables a limit.
+     */
+    public void setStorageLimits(long storageQuotaBytes, long maxBundleAgeMillis) {
+        this.storageQuotaBytes = storageQuotaBytes;
+        this.maxBundleAgeMillis = maxBundleAgeMillis;
     }
 
     public File getAssetsDir() {
-        File dir = new File(context.getFilesDir(), ASSET_DIR_NAME);
+        File dir = new File(storage.getFilesDir(), ASSET_DIR_NAME);
         if (!dir.exists()) {
             dir.mkdirs();
         }
         return dir;
     }
 
+    private File getDownloadsDir() {
+        return new File(storage.getCacheDir(), DOWNLOAD_DIR_NAME);
+    }
+
     public void downloadAndExtract(String urlString, String assetName, boolean overwrite, String checksum) throws Exception {
-        URL url = new URL(urlString);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.connect();
+        downloadAndExtract(urlString, assetName, overwrite, checksum, CancellationToken.NONE);
+    }
 
-        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            throw new Exception("Server returned HTTP " + connection.getResponseCode() + " " + connection.getResponseMessage());
+    public void downloadAndExtract(String urlString, String assetName, boolean overwrite, String checksum, CancellationToken token) throws Exception {
+        if (assetName == null || assetName.isEmpty()) {
+            assetName = getAssetNameFromUrl(urlString);
+        }
+        if (!overwrite && new File(getAssetsDir(), assetName).exists()) {
+            return;
         }
 
-        File tempZip = new File(context.getCacheDir(), "update.zip");
-        try (InputStream input = new BufferedInputStream(connection.getInputStream());
-             FileOutputStream output = new FileOutputStream(tempZip)) {
-
-            byte[] data = new byte[4096];
-            int count;
-            while ((count = input.read(data)) != -1) {
-                output.write(data, 0, count);
+        PartialDownload download = PartialDownload.begin(getDownloadsDir(), urlString);
+        try {
+            if (archiveInstall || parallelExtraction) {
+                // Land the whole archive first; then its central directory allows random access.
+                long start = System.nanoTime();
+                try (InputStream input = download.open(token)) {
+                    verifyChecksum(input, checksum, token);
+                }
+                DevServerStats.recordStage(DevServerStats.STAGE_DOWNLOAD, start, download.getFile().length());
+                if (archiveInstall) {
+                    installArchive(download.getFile(), assetName, urlString);
+                } else {
+                    extractArchive(download.getFile(), assetName, urlString, token);
+                }
+            } else {
+                try (InputStream input = download.open(token)) {
+                    extractVerified(input, assetName, checksum, urlString, token);
+                }
             }
+            download.complete();
+        } catch (java.util.concurrent.CancellationException e) {
+            // Cancellation: keep the partial file so the next attempt resumes from where this one stopped.
+            throw e;
+        } catch (PartialDownload.TransferException e) {
+            // Network failure: the partial file is kept for the same reason.
+            DevServerStats.recordStageFailure(DevServerStats.STAGE_DOWNLOAD);
+            throw e.getCause();
+        } catch (IOException e) {
+            // Bad archive or local failure: the same bytes would fail again, so the next attempt starts over.
+            download.discard();
+            DevServerStats.recordStageFailure(DevServerStats.STAGE_EXTRACT);
+            throw e;
+        } catch (Exception e) {
+            download.discard();
+            throw e;
+        } finally {
+            download.release();
+        }
+    }
+
+    private void verifyChecksum(InputStream input, String checksum, CancellationToken token) throws Exception {
+        java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        long hashNanos = 0;
+        while ((count = input.read(buffer)) != -1) {
+            token.throwIfCancelled();
+            long start = System.nanoTime();
+            digest.update(buffer, 0, count);
+            hashNanos += System.nanoTime() - start;
         }
-        
-        // Checksum Verification
+        // Hashing is interleaved with the transfer; the verify stage reports only the time spent in the digest.
+        long start = System.nanoTime() - hashNanos;
+        checkDigest(digest, checksum);
+        DevServerStats.recordStage(DevServerStats.STAGE_VERIFY, start);
+    }
+
+    private static void checkDigest(java.security.MessageDigest digest, String checksum) throws Exception {
         if (checksum != null && !checksum.isEmpty()) {
-            String calculatedHash = calculateSHA256(tempZip);
+            String calculatedHash = toHex(digest.digest());
             if (!calculatedHash.equalsIgnoreCase(checksum)) {
-                tempZip.delete();
+                DevServerStats.recordStageFailure(DevServerStats.STAGE_VERIFY);
                 throw new Exception("Checksum mismatch! Expected: " + checksum + ", Calculated: " + calculatedHash);
             }
         }
+    }
+
+    /**
+     * Extracts a complete ZIP on disk across all cores into a staging directory, then publishes it.
+     */
+    private void extractArchive(File zip, String assetName, String sourceUrl, CancellationToken token) throws Exception {
+        long start = System.nanoTime();
+        File stagingDir = createStagingDir(assetName);
+        BundleManifest manifest = new BundleManifest(null, new java.util.LinkedHashMap<>());
+        // What the workers have linked so far, to release if the install fails midway.
+        BundleManifest linked = new BundleManifest(null, new java.util.concurrent.ConcurrentHashMap<>());
+        try {
+            ParallelUnzipper unzipper = new ParallelUnzipper(Runtime.getRuntime().availableProcessors());
+            ParallelUnzipper.EntryWriter writer = (in, target, path, buffer) -> {
+                BundleManifest.Entry entry = storeBlob(in, target, path, buffer);
+                linked.getEntries().put(path, entry);
+                return entry;
+            };
+            for (BundleManifest.Entry entry : unzipper.extract(zip, stagingDir, writer, token)) {
+                manifest.getEntries().put(entry.path, entry);
+            }
+        } catch (Exception e) {
+            discardStagingDir(stagingDir, linked);
+            throw e;
+        }
+        publishStagingDir(stagingDir, assetName, manifest, sourceUrl);
+        DevServerStats.recordStage(DevServerStats.STAGE_EXTRACT, start);
+    }
+
+    /**
+     * Publishes a verified ZIP as an archive bundle: once its central directory checks out, the
+     * file is renamed into a staging directory as is. Nothing is extracted or copied.
+     */
+    private void installArchive(File zip, String assetName, String sourceUrl) throws Exception {
+        long start = System.nanoTime();
+        BundleManifest manifest = readArchiveManifest(zip);
+        File stagingDir = createStagingDir(assetName);
+        File target = new File(stagingDir, BundleIndex.ARCHIVE_FILE_NAME);
+        try {
+            if (!zip.renameTo(target)) {
+                // Downloads live in the cache directory, which may be on another file system.
+                try (InputStream in = new FileInputStream(zip); OutputStream out = new FileOutputStream(target)) {
+                    copy(in, out, null, CancellationToken.NONE);
+                }
+            }
+        } catch (Exception e) {
+            // The ZIP is the only file, and not a blob.
+            discardStagingDir(stagingDir, new BundleManifest(null, new java.util.LinkedHashMap<>()));
+            throw e;
+        }
+        publishStagingDir(stagingDir, assetName, manifest, sourceUrl);
+        DevServerStats.recordStage(DevServerStats.STAGE_EXTRACT, start);
+    }
+
+    /**
+     * The manifest of an archive bundle, from the ZIP's central directory. Members are not hashed
+     * on install, so entries carry their CRC-32 where extracted bundles have a SHA-256; they name
+     * no blobs and are never matched by delta updates.
+     */
+    private static BundleManifest readArchiveManifest(File zip) throws IOException {
+        BundleManifest manifest = new BundleManifest(null, new java.util.LinkedHashMap<>());
+        for (ZipArchive.Member member : ZipArchive.open(zip).members()) {
+            String hash = String.format(java.util.Locale.US, "crc32-%08x", member.crc);
+            manifest.getEntries().put(member.path, new BundleManifest.Entry(member.path, hash, member.size));
+        }
+        return manifest;
+    }
+
+    /**
+     * Installs a bundle from a ZIP body that is already being received, e.g. a response whose
+     * type was only known once it arrived.
+     */
+    public void installFromStream(InputStream input, String assetName, String checksum, String sourceUrl, CancellationToken token) throws Exception {
+        if (archiveInstall) {
+            storeVerified(input, assetName, checksum, sourceUrl, token);
+        } else {
+            extractVerified(input, assetName, checksum, sourceUrl, token);
+        }
+    }
+
+    /**
+     * Writes the ZIP into a staging directory as it arrives, hashing it on the way, and publishes
+     * it as an archive bundle once the checksum and the central directory have been verified.
+     */
+    private void storeVerified(InputStream input, String assetName, String checksum, String sourceUrl, CancellationToken token) throws Exception {
+        long start = System.nanoTime();
+        File stagingDir = createStagingDir(assetName);
+        BundleManifest manifest;
+        try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            File target = new File(stagingDir, BundleIndex.ARCHIVE_FILE_NAME);
+            long size;
+            try (OutputStream out = new FileOutputStream(target)) {
+                size = copy(input, out, digest, token);
+            }
+            DevServerStats.recordStage(DevServerStats.STAGE_DOWNLOAD, start, size);
+
+            long verifyStart = System.nanoTime();
+            checkDigest(digest, checksum);
+            DevServerStats.recordStage(DevServerStats.STAGE_VERIFY, verifyStart);
+            manifest = readArchiveManifest(target);
+        } catch (Exception e) {
+            discardStagingDir(stagingDir, new BundleManifest(null, new java.util.LinkedHashMap<>()));
+            throw e;
+        }
+        publishStagingDir(stagingDir, assetName, manifest, sourceUrl);
+    }
+
+    private static long copy(InputStream in, OutputStream out, java.security.MessageDigest digest, CancellationToken token) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            token.throwIfCancelled();
+            if (digest != null) {
+                digest.update(buffer, 0, count);
+            }
+            out.write(buffer, 0, count);
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Hashes and extracts the ZIP in a single pass as the bytes arrive, into a staging directory
+     * that only replaces the bundle once the checksum has been verified.
+     */
+    private void extractVerified(InputStream input, String assetName, String checksum, String sourceUrl, CancellationToken token) throws Exception {
+        long start = System.nanoTime();
+        File stagingDir = createStagingDir(assetName);
+        java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+        BundleManifest manifest = new BundleManifest(null, new java.util.LinkedHashMap<>());
+
+        try {
+            CountingInputStream counting = new CountingInputStream(new BufferedInputStream(input, BUFFER_SIZE));
+            DigestInputStream hashing = new DigestInputStream(counting, digest);
+            ZipInputStream zis = new ZipInputStream(hashing);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            extractEntries(zis, stagingDir, buffer, manifest, token);
+
+            // The central directory follows the last entry; it still has to go through the digest.
+            while (hashing.read(buffer) != -1) {
+                // drain
+            }
+            // Extraction and hashing run inside the transfer here, so the download stage covers them.
+            DevServerStats.recordStage(DevServerStats.STAGE_DOWNLOAD, start, counting.count);
+
+            long verifyStart = System.nanoTime();
+            checkDigest(digest, checksum);
+            DevServerStats.recordStage(DevServerStats.STAGE_VERIFY, verifyStart);
+        } catch (Exception e) {
+            discardStagingDir(stagingDir, manifest);
+            throw e;
+        }
+
+        publishStagingDir(stagingDir, assetName, manifest, sourceUrl);
+    }
+
+    private void extractEntries(ZipInputStream zis, File targetDir, byte[] buffer, BundleManifest manifest, CancellationToken token) throws Exception {
+        String rootPath = targetDir.getCanonicalPath() + File.separator;
+        ZipEntry ze;
+        while ((ze = zis.getNextEntry()) != null) {
+            token.throwIfCancelled();
+            File file = new File(targetDir, ParallelUnzipper.checkPath(ze.getName()));
+            if (!file.getCanonicalPath().startsWith(rootPath)) {
+                throw new IOException("Illegal entry outside of bundle: " + ze.getName());
+            }
+            File dir = ze.isDirectory() ? file : file.getParentFile();
+
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Failed to create directory " + dir);
+
+            if (ze.isDirectory())
+                continue;
+
+            String path = targetDir.toURI().relativize(file.toURI()).getPath();
+            manifest.getEntries().put(path, storeBlob(zis, file, path, buffer));
+        }
+    }
+
+    /**
+     * Writes one file through the blob store, hashing it on the way, and links it into place.
+     */
+    private BundleManifest.Entry storeBlob(InputStream in, File target, String path, byte[] buffer) throws Exception {
+        java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+        File tmp = blobStore.newTempFile();
+        long size = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                fos.write(buffer, 0, count);
+                size += count;
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        BundleManifest.Entry entry = new BundleManifest.Entry(path, toHex(digest.digest()), size);
+        blobStore.commit(tmp, entry.sha256, target);
+        entry.mtime = target.lastModified();
+        return entry;
+    }
+
+    private File createStagingDir(String assetName) throws IOException {
+        File stagingDir = new File(getAssetsDir(), STAGING_PREFIX + assetName);
+        if (!activeStaging.add(stagingDir.getName())) {
+            throw new IOException("An install of " + assetName + " is already in progress");
+        }
+        if (stagingDir.exists()) {
+            discard(stagingDir, null);
+        }
+        if (!stagingDir.mkdirs()) {
+            activeStaging.remove(stagingDir.getName());
+            throw new IOException("Failed to create directory " + stagingDir);
+        }
+        return stagingDir;
+    }
+
+    /**
+     * Drops a failed install. {@code linked} names the blobs it may have linked; only those are
+     * released, so other installs do not wait for a sweep of the whole store.
+     */
+    private void discardStagingDir(File stagingDir, BundleManifest linked) {
+        discard(stagingDir, linked);
+        activeStaging.remove(stagingDir.getName());
+    }
+
+    /**
+     * Swaps the staged bundle in with two renames: the old directory moves aside, the new one
+     * takes its name. Readers see either the complete old bundle or the complete new one, and a
+     * crash between the renames is repaired by {@link #recoverInterruptedInstalls()}.
+     */
+    private void publishStagingDir(File stagingDir, String assetName, BundleManifest manifest, String sourceUrl) throws IOException {
+        File targetDir = new File(getAssetsDir(), assetName);
+        File trashDir = new File(getAssetsDir(), TRASH_PREFIX + assetName);
+        try {
+            BundleRegistry.Record record = createRecord(assetName, manifest, sourceUrl);
+            if (precompressOnInstall) {
+                Precompressor.compressTree(stagingDir);
+            }
+            if (!new File(stagingDir, BundleIndex.ARCHIVE_FILE_NAME).isFile()) {
+                recordShippedSidecars(stagingDir, record.webRoot, manifest);
+            }
+            BundleManifest previous = BundleManifest.load(getManifestFile(assetName));
+            if (trashDir.exists()) {
+                discard(trashDir, null);
+            }
+            if (targetDir.exists() && !targetDir.renameTo(trashDir)) {
+                throw new IOException("Failed to move old bundle out of " + targetDir);
+            }
+            if (!stagingDir.renameTo(targetDir)) {
+                trashDir.renameTo(targetDir);
+                throw new IOException("Failed to move bundle into " + targetDir);
+            }
+            manifest.save(getManifestFile(assetName));
+            // The new version loads differently; it is recorded again on its first load.
+            getAccessOrderFile(assetName).delete();
+            BundleRegistry.Record replaced = getRegistry().get(assetName);
+            if (replaced != null && record.installedAt <= replaced.installedAt) {
+                // The install time doubles as the install's generation, so it must change.
+                record.installedAt = replaced.installedAt + 1;
+            }
+            getRegistry().put(record);
+            if (trashDir.exists()) {
+                discard(trashDir, previous);
+            }
+        } catch (IOException e) {
+            discard(stagingDir, manifest);
+            throw e;
+        } finally {
+            activeStaging.remove(stagingDir.getName());
+        }
+    }
+
+    /** Lists the ".gz" / ".br" files the bundle came with for {@link BundleIndex}, in its web root. */
+    private static void recordShippedSidecars(File stagingDir, String webRoot, BundleManifest manifest) throws IOException {
+        String prefix = webRoot.isEmpty() ? "" : webRoot + "/";
+        List<String> sidecars = new ArrayList<>();
+        for (String path : manifest.getEntries().keySet()) {
+            if ((path.endsWith(".gz") || path.endsWith(".br")) && path.startsWith(prefix) && manifest.get(path.substring(0, path.length() - 3)) != null) {
+                sidecars.add(path.substring(prefix.length()));
+            }
+        }
+        if (!sidecars.isEmpty()) {
+            BundleIndex.writeShippedSidecars(new File(stagingDir, webRoot), sidecars);
+        }
+    }
+
+    /**
+     * Cleans up after installs that were killed midway: staging directories are dropped, and a
+     * bundle that was moved aside but never replaced is put back. Deletions that a killed process
+     * left in the deleted area are finished too.
+     */
+    public void recoverInterruptedInstalls() {
+        File[] files = getAssetsDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(STAGING_PREFIX) && !activeStaging.contains(name)) {
+                discard(f, null);
+            } else if (name.startsWith(TRASH_PREFIX) && !activeStaging.contains(STAGING_PREFIX + name.substring(TRASH_PREFIX.length()))) {
+                File targetDir = new File(getAssetsDir(), name.substring(TRASH_PREFIX.length()));
+                if (targetDir.exists() || !f.renameTo(targetDir)) {
+                    discard(f, null);
+                }
+            }
+        }
+        scheduleSweep();
+    }
+
+    /**
+     * Removes bundles until the installed ones are within the limits from {@link #setStorageLimits}:
+     * first those unused for longer than the maximum age, then the least recently used until the
+     * total fits the quota. Bundles in {@code keep} and bundles being installed are never removed.
+     * Sizes come from the registry, where a file shared with another bundle counts for both, so
+     * the quota errs on the side of evicting.
+     *
+     * @return the names of the evicted bundles
+     */
+    public List<String> enforceStorageLimits(java.util.Collection<String> keep) {
+        List<String> evicted = new ArrayList<>();
+        if (storageQuotaBytes <= 0 && maxBundleAgeMillis <= 0) {
+            return evicted;
+        }
+        List<BundleRegistry.Record> records = getRegistry().list();
+        java.util.Collections.sort(records, (a, b) -> Long.compare(a.lastUsedAt, b.lastUsedAt));
+        long total = 0;
+        for (BundleRegistry.Record record : records) {
+            total += record.totalSize;
+        }
+        long cutoff = maxBundleAgeMillis > 0 ? System.currentTimeMillis() - maxBundleAgeMillis : Long.MIN_VALUE;
+        for (BundleRegistry.Record record : records) {
+            boolean expired = record.lastUsedAt < cutoff;
+            boolean overQuota = storageQuotaBytes > 0 && total > storageQuotaBytes;
+            if (!expired && !overQuota) {
+                continue;
+            }
+            if (keep.contains(record.name) || activeStaging.contains(STAGING_PREFIX + record.name)) {
+                continue;
+            }
+            deleteBundle(record.name);
+            total -= record.totalSize;
+            evicted.add(record.name);
+        }
+        return evicted;
+    }
+
+    /** Records a launch or apply of the bundle for least-recently-used eviction. */
+    public void markUsed(String assetName) {
+        getRegistry().touch(assetName);
+    }
+
+    /**
+     * Removes a bundle directory and frees the blobs that no other bundle links to.
+     */
+    private void deleteBundle(String assetName) {
+        File targetDir = new File(getAssetsDir(), assetName);
+        File manifestFile = getManifestFile(assetName);
+        BundleManifest previous = BundleManifest.load(manifestFile);
+        manifestFile.delete();
+        getAccessOrderFile(assetName).delete();
+        getRegistry().remove(assetName);
+        if (!targetDir.exists()) {
+            return;
+        }
+        discard(targetDir, previous);
+    }
+
+    /**
+     * Deletes a directory without waiting for it: one rename moves it into the deleted area and a
+     * background sweep frees the files. {@code manifest} names the blobs to release afterwards;
+     * without one, the sweep checks the whole blob store.
+     */
+    private void discard(File dir, BundleManifest manifest) {
+        File entry = new File(new File(getAssetsDir(), DELETED_DIR_NAME), dir.getName() + "-" + System.nanoTime());
+        try {
+            if (!entry.mkdirs()) {
+                throw new IOException("Failed to create directory " + entry);
+            }
+            if (manifest != null) {
+                manifest.save(new File(entry, DELETED_MANIFEST_NAME));
+            }
+            if (!dir.renameTo(new File(entry, dir.getName()))) {
+                throw new IOException("Failed to move " + dir + " to " + entry);
+            }
+        } catch (IOException e) {
+            Logger.warn("Deleting " + dir.getName() + " in place: " + e.getMessage());
+            deleteRecursive(dir);
+            releaseBlobs(manifest);
+        }
+        scheduleSweep();
+    }
+
+    private void scheduleSweep() {
+        if (sweepScheduled.compareAndSet(false, true)) {
+            TaskScheduler.shared().execute(TaskScheduler.PRIORITY_LOW, this::sweepDeleted);
+        }
+    }
+
+    /** Frees everything in the deleted area; runs on a scheduler worker, never on a caller's thread. */
+    private void sweepDeleted() {
+        // Cleared first, so a discard that races with this sweep schedules another one.
+        sweepScheduled.set(false);
+        synchronized (sweepLock) {
+            File[] entries = new File(getAssetsDir(), DELETED_DIR_NAME).listFiles();
+            if (entries == null) {
+                return;
+            }
+            boolean collectAll = false;
+            for (File entry : entries) {
+                BundleManifest manifest = BundleManifest.load(new File(entry, DELETED_MANIFEST_NAME));
+                deleteRecursive(entry);
+                if (manifest != null) {
+                    releaseBlobs(manifest);
+                } else {
+                    collectAll = true;
+                }
+            }
+            if (collectAll) {
+                blobStore.collectGarbage();
+            }
+        }
+    }
+
+    private void releaseBlobs(BundleManifest previous) {
+        if (previous != null) {
+            java.util.Set<String> hashes = new java.util.HashSet<>();
+            for (BundleManifest.Entry entry : previous.list()) {
+                hashes.add(entry.sha256);
+            }
+            blobStore.release(hashes);
+        } else {
+            blobStore.collectGarbage();
+        }
+    }
+
+    /**
+     * Compares a per-file manifest against the bundle {@code baseAsset} without downloading anything.
+     * Only hashes already known are used, the blob store's and the base bundle's recorded ones, so
+     * no file is read; a file whose hash was never recorded counts as a download.
+     */
+    public DeltaResult planDelta(String manifestUrl, String baseAsset) throws Exception {
+        BundleManifest manifest = BundleManifest.fetch(manifestUrl);
+        BundleManifest local = getLocalManifest(baseAsset);
+        DeltaResult result = new DeltaResult();
+        for (BundleManifest.Entry entry : manifest.list()) {
+            if (blobStore.contains(entry.sha256) || findReusable(baseAsset, local, entry, false) != null) {
+                result.filesReused++;
+                result.bytesSaved += Math.max(entry.size, 0);
+            } else {
+                result.filesDownloaded++;
+                result.bytesDownloaded += Math.max(entry.size, 0);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds {@code assetName} from a per-file manifest, copying files whose hash matches the
+     * bundle {@code baseAsset} and downloading only the missing or changed ones.
+     */
+    public DeltaResult downloadDelta(String manifestUrl, String assetName, String baseAsset, boolean overwrite) throws Exception {
+        return downloadDelta(manifestUrl, assetName, baseAsset, overwrite, CancellationToken.NONE);
+    }
+
+    public DeltaResult downloadDelta(String manifestUrl, String assetName, String baseAsset, boolean overwrite, CancellationToken token) throws Exception {
+        BundleManifest manifest = BundleManifest.fetch(manifestUrl);
+        BundleManifest local = getLocalManifest(baseAsset);
+        DeltaResult result = new DeltaResult();
 
         File assetsDir = getAssetsDir();
         if (assetName == null || assetName.isEmpty()) {
-            assetName = getAssetNameFromUrl(urlString);
+            assetName = getAssetNameFromUrl(manifestUrl);
         }
         File targetDir = new File(assetsDir, assetName);
+        if (targetDir.exists() && !overwrite) {
+            return result;
+        }
 
-        if (targetDir.exists()) {
-            if (overwrite) {
-                deleteRecursive(targetDir);
-            } else {
-                tempZip.delete();
-                return;
+        long start = System.nanoTime();
+        File stagingDir = createStagingDir(assetName);
+
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (BundleManifest.Entry entry : manifest.list()) {
+                token.throwIfCancelled();
+                File out = new File(stagingDir, entry.path);
+                out.getParentFile().mkdirs();
+
+                boolean linked = blobStore.linkExisting(entry.sha256, out);
+                File reusable = linked ? null : findReusable(baseAsset, local, entry, true);
+                if (linked) {
+                    result.filesReused++;
+                    result.bytesSaved += out.length();
+                } else if (reusable != null) {
+                    blobStore.linkOrCopy(reusable, out);
+                    result.filesReused++;
+                    result.bytesSaved += reusable.length();
+                } else {
+                    result.bytesDownloaded += downloadFile(new URL(new URL(manifest.getBaseUrl()), entry.path).toString(), out, entry.sha256, buffer, token);
+                    result.filesDownloaded++;
+                }
+                entry.mtime = out.lastModified();
+            }
+            DevServerStats.recordStage(DevServerStats.STAGE_DOWNLOAD, start, result.bytesDownloaded);
+        } catch (Exception e) {
+            // Entries not reached yet name blobs this install did not link; releasing them is harmless.
+            discardStagingDir(stagingDir, manifest);
+            throw e;
+        } finally {
+            saveLocalManifest(baseAsset, local);
+        }
+
+        publishStagingDir(stagingDir, assetName, manifest, manifestUrl);
+        return result;
+    }
+
+    private long downloadFile(String urlString, File out, String sha256, byte[] buffer, CancellationToken token) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(urlString).openConnection();
+        token.onCancel(connection::disconnect);
+        try {
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new Exception("Server returned HTTP " + connection.getResponseCode() + " for " + urlString);
+            }
+            BundleManifest.Entry stored;
+            try (InputStream input = connection.getInputStream()) {
+                stored = storeBlob(input, out, null, buffer);
+            }
+            if (!stored.sha256.equalsIgnoreCase(sha256)) {
+                DevServerStats.recordStageFailure(DevServerStats.STAGE_VERIFY);
+                out.delete();
+                blobStore.release(java.util.Collections.singleton(stored.sha256));
+                throw new Exception("Checksum mismatch for " + urlString + "! Expected: " + sha256 + ", Calculated: " + stored.sha256);
             }
+            return stored.size;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * The file of {@code baseAsset} with {@code entry}'s content, judged by the hash recorded for it
+     * while its size and mtime are unchanged. Files without one (a bundle installed before hashes
+     * were recorded, or changed since) are hashed only if {@code hash} is set, and the result is
+     * recorded in {@code local}.
+     */
+    private File findReusable(String baseAsset, BundleManifest local, BundleManifest.Entry entry, boolean hash) throws Exception {
+        if (baseAsset == null) {
+            return null;
+        }
+        File candidate = new File(new File(getAssetsDir(), baseAsset), entry.path);
+        if (!candidate.isFile() || (entry.size >= 0 && candidate.length() != entry.size)) {
+            return null;
+        }
+
+        BundleManifest.Entry known = local != null ? local.get(entry.path) : null;
+        if (known != null && known.size == candidate.length() && known.mtime == candidate.lastModified()) {
+            return known.sha256.equalsIgnoreCase(entry.sha256) ? candidate : null;
+        }
+
+        if (!hash) {
+            return null;
+        }
+        BundleManifest.Entry computed = new BundleManifest.Entry(entry.path, calculateSHA256(candidate), candidate.length());
+        computed.mtime = candidate.lastModified();
+        local.getEntries().put(entry.path, computed);
+        return computed.sha256.equalsIgnoreCase(entry.sha256) ? candidate : null;
+    }
+
+    private BundleManifest getLocalManifest(String assetName) {
+        if (assetName == null) {
+            return null;
         }
-        
-        targetDir.mkdirs();
-        unzip(tempZip, targetDir);
-        tempZip.delete();
+        BundleManifest manifest = BundleManifest.load(getManifestFile(assetName));
+        return manifest != null ? manifest : new BundleManifest(null, new java.util.LinkedHashMap<>());
     }
-    
-    private String calculateSHA256(File file) throws Exception {
+
+    private void saveLocalManifest(String assetName, BundleManifest manifest) {
+        if (assetName == null || manifest.getEntries().isEmpty()) {
+            return;
+        }
+        try {
+            manifest.save(getManifestFile(assetName));
+        } catch (IOException e) {
+            Logger.warn("Failed to persist manifest for " + assetName + ": " + e.getMessage());
+        }
+    }
+
+    private File getManifestFile(String assetName) {
+        return new File(new File(getAssetsDir(), META_DIR_NAME), assetName + ".files.json");
+    }
+
+    /** Where {@link LocalServer} keeps the recorded load order of a bundle; see {@link AccessOrder}. */
+    public File getAccessOrderFile(String assetName) {
+        return new File(new File(getAssetsDir(), META_DIR_NAME), assetName + ".access.json");
+    }
+
+    static String calculateSHA256(File file) throws Exception {
         java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
-        try (InputStream fis = new BufferedInputStream(new java.io.FileInputStream(file))) {
-            byte[] byteArray = new byte[1024];
+        try (InputStream fis = new java.io.FileInputStream(file)) {
+            byte[] byteArray = new byte[BUFFER_SIZE];
             int bytesCount = 0; 
             while ((bytesCount = fis.read(byteArray)) != -1) {
                 digest.update(byteArray, 0, bytesCount);
             }
         }
-        byte[] bytes = digest.digest();
+        return toHex(digest.digest());
+    }
+
+    /** Counts the bytes read through it, for throughput figures. */
+    private static class CountingInputStream extends java.io.FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
         for(int i=0; i< bytes.length ;i++) {
             sb.append(Integer.toString((bytes[i] & 0xff) + 0x100, 16).substring(1));
@@ -97,7 +849,7 @@ public class AssetManager {
         return sb.toString();
     }
 
-    private String getAssetNameFromUrl(String url) {
+    String getAssetNameFromUrl(String url) {
         // Simple hash or name from last segment
         // Ideally we might want a manifest, but for now simple:
         // url: http://host.com/ver1.zip -> assetName: ver1
@@ -108,53 +860,154 @@ public class AssetManager {
         return filename.replaceAll("[^a-zA-Z0-9.-]", "_");
     }
 
-    private void unzip(File zipFile, File targetDir) throws IOException {
-        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new java.io.FileInputStream(zipFile)))) {
-            ZipEntry ze;
-            while ((ze = zis.getNextEntry()) != null) {
-                File file = new File(targetDir, ze.getName());
-                File dir = ze.isDirectory() ? file : file.getParentFile();
-                
-                if (!dir.isDirectory() && !dir.mkdirs())
-                    throw new IOException("Failed to create directory " + dir);
-                    
-                if (ze.isDirectory())
-                    continue;
-
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    byte[] buffer = new byte[4096];
-                    int count;
-                    while ((count = zis.read(buffer)) != -1) {
-                        fos.write(buffer, 0, count);
+    public List<String> getAssetList() {
+        List<String> list = new ArrayList<>();
+        for (BundleRegistry.Record record : getRegistry().list()) {
+            list.add(record.name);
+        }
+        return list;
+    }
+
+    public List<BundleRegistry.Record> getBundleList() {
+        return getRegistry().list();
+    }
+
+    /**
+     * The directory to serve for a bundle, from its record; bundles without one are scanned once.
+     * For archive bundles this is the bundle directory, which {@link BundleIndex} reads the ZIP from.
+     */
+    public File getWebRoot(String assetName) {
+        File bundleDir = new File(getAssetsDir(), assetName);
+        if (isArchiveBundle(assetName)) {
+            return bundleDir;
+        }
+        BundleRegistry.Record record = getRegistry().get(assetName);
+        if (record != null) {
+            File webRoot = record.webRoot.isEmpty() ? bundleDir : new File(bundleDir, record.webRoot);
+            if (webRoot.isDirectory()) {
+                return webRoot;
+            }
+        }
+        if (!bundleDir.isDirectory()) {
+            return null;
+        }
+        record = createRecordFromDisk(assetName);
+        getRegistry().put(record);
+        return record.webRoot.isEmpty() ? bundleDir : new File(bundleDir, record.webRoot);
+    }
+
+    /**
+     * Identifies the current install of a bundle: it changes when the bundle is installed again,
+     * and is 0 once it is removed. Sidecars and live-reload pushes leave it alone.
+     */
+    public long getInstallGeneration(String assetName) {
+        BundleRegistry.Record record = getRegistry().get(assetName);
+        return record != null ? record.installedAt : 0;
+    }
+
+    /**
+     * The name to install an update for {@code bundleId} under. Installing replaces the bundle's
+     * directory, so an update that reuses the active bundle's id goes to an alternate name instead;
+     * repeated updates alternate between the two, and the older one is left to the storage limits.
+     */
+    public static String updateTarget(String bundleId, String activeAsset) {
+        if (bundleId == null || !bundleId.equals(activeAsset)) {
+            return bundleId;
+        }
+        return bundleId + ALTERNATE_SUFFIX;
+    }
+
+    private BundleRegistry getRegistry() {
+        BundleRegistry registry = BundleRegistry.forDir(new File(getAssetsDir(), META_DIR_NAME));
+        if (!registry.load()) {
+            // First launch with the registry, or the index was lost: rebuild it from the bundle directories.
+            List<BundleRegistry.Record> records = new ArrayList<>();
+            File[] files = getAssetsDir().listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.isDirectory() && !f.getName().startsWith(".")) {
+                        BundleRegistry.Record record = registry.readRecord(f.getName());
+                        records.add(record != null ? record : createRecordFromDisk(f.getName()));
                     }
                 }
             }
+            registry.reset(records);
         }
+        return registry;
     }
 
-    public List<String> getAssetList() {
-        List<String> list = new ArrayList<>();
-        File[] files = getAssetsDir().listFiles();
-        if (files != null) {
-            for (File f : files) {
-                if (f.isDirectory()) {
-                    list.add(f.getName());
+    private BundleRegistry.Record createRecord(String assetName, BundleManifest manifest, String sourceUrl) {
+        BundleRegistry.Record record = new BundleRegistry.Record();
+        record.name = assetName;
+        record.installedAt = System.currentTimeMillis();
+        record.lastUsedAt = record.installedAt;
+        record.sourceUrl = sourceUrl;
+
+        List<BundleManifest.Entry> entries = manifest.list();
+        java.util.Collections.sort(entries, (a, b) -> a.path.compareTo(b.path));
+        String webRoot = null;
+        int webRootDepth = Integer.MAX_VALUE;
+        try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            for (BundleManifest.Entry entry : entries) {
+                record.fileCount++;
+                record.totalSize += Math.max(entry.size, 0);
+                digest.update((entry.path + "\0" + entry.sha256 + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                if (entry.path.equals("index.html") || entry.path.endsWith("/index.html")) {
+                    String dir = entry.path.substring(0, entry.path.length() - "index.html".length());
+                    int depth = dir.split("/", -1).length;
+                    if (depth < webRootDepth) {
+                        webRoot = dir;
+                        webRootDepth = depth;
+                    }
                 }
             }
+            record.hash = toHex(digest.digest());
+        } catch (java.security.NoSuchAlgorithmException e) {
+            record.hash = null;
         }
-        return list;
+        record.webRoot = webRoot != null && webRoot.endsWith("/") ? webRoot.substring(0, webRoot.length() - 1) : "";
+        return record;
     }
 
-    public void removeAsset(String assetName) {
-        File targetDir = new File(getAssetsDir(), assetName);
-        if (targetDir.exists()) {
-            deleteRecursive(targetDir);
+    /** For bundles installed before the registry existed: the one full walk, done at most once. */
+    private BundleRegistry.Record createRecordFromDisk(String assetName) {
+        File bundleDir = new File(getAssetsDir(), assetName);
+        BundleManifest manifest = BundleManifest.load(getManifestFile(assetName));
+        if (manifest == null) {
+            manifest = new BundleManifest(null, new java.util.LinkedHashMap<>());
+            collectFiles(bundleDir, bundleDir, manifest);
         }
+        BundleRegistry.Record record = createRecord(assetName, manifest, null);
+        record.installedAt = bundleDir.lastModified();
+        record.lastUsedAt = record.installedAt;
+        return record;
+    }
+
+    private void collectFiles(File root, File dir, BundleManifest manifest) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectFiles(root, f, manifest);
+            } else {
+                String path = root.toURI().relativize(f.toURI()).getPath();
+                // No content hash without reading every file; size and mtime stand in for it.
+                manifest.getEntries().put(path, new BundleManifest.Entry(path, f.length() + "-" + f.lastModified(), f.length()));
+            }
+        }
+    }
+
+    public void removeAsset(String assetName) {
+        deleteBundle(assetName);
     }
 
     private void deleteRecursive(File fileOrDirectory) {
-        if (fileOrDirectory.isDirectory()) {
-            for (File child : fileOrDirectory.listFiles()) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null) {
+            for (File child : children) {
                 deleteRecursive(child);
             }
         }
@@ -0,0 +1,199 @@
+package dev.novals.devserver;
+
+import android.system.Os;
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressed storage for bundle files. Every distinct file is kept once under its SHA-256
+ * and bundle directories hold hard links to it, so identical files across bundle versions share
+ * the same inode. The link count doubles as the reference count: a blob whose only remaining
+ * link is the store's own can be deleted.
+ */
+public class BlobStore {
+
+    private static final String TMP_DIR_NAME = ".tmp";
+    private static final long STALE_TMP_MS = 60 * 60 * 1000;
+    private static final java.util.regex.Pattern SHA256 = java.util.regex.Pattern.compile("[0-9a-fA-F]{64}");
+    private final File root;
+    // Installs hold the read lock between storing a blob and linking it; sweeps take the write lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public BlobStore(File root) {
+        this.root = root;
+    }
+
+    public File newTempFile() throws IOException {
+        File tmpDir = new File(root, TMP_DIR_NAME);
+        if (!tmpDir.isDirectory() && !tmpDir.mkdirs()) {
+            throw new IOException("Failed to create directory " + tmpDir);
+        }
+        return new File(tmpDir, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Moves a freshly written file with the given hash into the store (or drops it if the
+     * content is already there) and links the blob to {@code target}.
+     */
+    public void commit(File tmpFile, String sha256, File target) throws IOException {
+        File blob = getBlob(sha256);
+        if (blob == null) {
+            tmpFile.delete();
+            throw new IOException("Not a SHA-256: " + sha256);
+        }
+        lock.readLock().lock();
+        try {
+            if (blob.exists()) {
+                tmpFile.delete();
+            } else {
+                blob.getParentFile().mkdirs();
+                if (!tmpFile.renameTo(blob) && !blob.exists()) {
+                    tmpFile.delete();
+                    throw new IOException("Failed to store blob " + sha256);
+                }
+                tmpFile.delete();
+            }
+            linkOrCopy(blob, target);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Whether content with this hash is stored; it may still be swept unless linked meanwhile. */
+    public boolean contains(String sha256) {
+        File blob = getBlob(sha256);
+        return blob != null && blob.isFile();
+    }
+
+    /**
+     * Links the stored blob with this hash to {@code target}, so content any bundle installed
+     * before is reused without reading it. Returns {@code false} if the store does not hold it.
+     */
+    public boolean linkExisting(String sha256, File target) throws IOException {
+        File blob = getBlob(sha256);
+        if (blob == null) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            if (!blob.isFile()) {
+                return false;
+            }
+            linkOrCopy(blob, target);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Makes {@code target} share the content of an existing file, preferring a hard link.
+     */
+    public void linkOrCopy(File source, File target) throws IOException {
+        if (target.exists()) {
+            target.delete();
+        }
+        try {
+            Os.link(source.getPath(), target.getPath());
+            if (target.exists()) {
+                return;
+            }
+        } catch (Exception e) {
+            // Hard links unavailable (other volume, restricted filesystem, plain JVM): fall back to a private copy.
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(source); OutputStream out = new FileOutputStream(target)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Deletes the given blobs if no bundle links to them anymore.
+     */
+    public void release(Collection<String> hashes) {
+        lock.writeLock().lock();
+        try {
+            for (String hash : hashes) {
+                File blob = getBlob(hash);
+                if (blob != null) {
+                    releaseIfUnused(blob);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Full sweep: drops every unreferenced blob and any temp file left behind by an interrupted install.
+     */
+    public void collectGarbage() {
+        File[] shards = root.listFiles();
+        if (shards == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            sweep(shards);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void sweep(File[] shards) {
+        for (File shard : shards) {
+            File[] blobs = shard.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+            if (shard.getName().equals(TMP_DIR_NAME)) {
+                // Temp files of an install that is still writing are young; only reap stale ones.
+                long cutoff = System.currentTimeMillis() - STALE_TMP_MS;
+                for (File tmp : blobs) {
+                    if (tmp.lastModified() < cutoff) {
+                        tmp.delete();
+                    }
+                }
+                continue;
+            }
+            for (File blob : blobs) {
+                releaseIfUnused(blob);
+            }
+        }
+    }
+
+    private void releaseIfUnused(File blob) {
+        try {
+            if (Os.stat(blob.getPath()).st_nlink <= 1) {
+                blob.delete();
+            }
+        } catch (Exception e) {
+            if (blob.exists()) {
+                Logger.debug("Could not stat blob " + blob.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Where the blob with this hash lives; {@code null} for anything that is not a SHA-256, such as
+     * an archive bundle's CRC entries or a hash from a remote manifest that would name a path.
+     */
+    private File getBlob(String sha256) {
+        if (sha256 == null || !SHA256.matcher(sha256).matches()) {
+            return null;
+        }
+        String hash = sha256.toLowerCase(java.util.Locale.US);
+        return new File(new File(root, hash.substring(0, 2)), hash);
+    }
+}
@@ -0,0 +1,117 @@
+package dev.novals.devserver;
+
+import com.getcapacitor.Logger;
+import fi.iki.elonen.NanoHTTPD;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces NanoHTTPD's thread-per-connection runner with a bounded one. At most
+ * {@code maxConnections} connections are handled at once; when all slots are busy the accept
+ * thread waits for one to free up, leaving further connections in the kernel backlog instead of
+ * spawning more threads. A long-lived response can {@link #releaseSlot() give its slot back}; its
+ * thread then runs outside the limit.
+ */
+public class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final Set<NanoHTTPD.ClientHandler> running = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<AtomicBoolean> slotHeld = new ThreadLocal<>();
+
+    public BoundedAsyncRunner(int maxConnections, boolean preferVirtualThreads) {
+        this.slots = new Semaphore(Math.max(1, maxConnections));
+        ExecutorService virtual = preferVirtualThreads ? newVirtualThreadExecutor() : null;
+        // Unbounded, but only connections that released their slot run beyond maxConnections threads.
+        this.executor = virtual != null ? virtual : new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), new WorkerFactory());
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler handler) {
+        slots.acquireUninterruptibly();
+        running.add(handler);
+        try {
+            executor.execute(() -> {
+                AtomicBoolean held = new AtomicBoolean(true);
+                slotHeld.set(held);
+                try {
+                    handler.run();
+                } finally {
+                    slotHeld.remove();
+                    running.remove(handler);
+                    if (held.getAndSet(false)) {
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(handler);
+            slots.release();
+            handler.close();
+        }
+    }
+
+    /**
+     * Called from a connection's own thread: stops it counting against {@code maxConnections},
+     * so a response that stays open (an event stream) does not keep other requests waiting.
+     */
+    public void releaseSlot() {
+        AtomicBoolean held = slotHeld.get();
+        if (held != null && held.getAndSet(false)) {
+            slots.release();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler handler) {
+        running.remove(handler);
+    }
+
+    @Override
+    public void closeAll() {
+        for (NanoHTTPD.ClientHandler handler : running) {
+            handler.close();
+        }
+    }
+
+    public int getActiveConnections() {
+        return running.size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Uses {@code Executors.newVirtualThreadPerTaskExecutor()} where the runtime has it (JDK 21+);
+     * Android's runtime does not, so this falls back to the platform pool there.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            Logger.debug("Virtual threads unavailable, using a platform thread pool");
+            return null;
+        }
+    }
+
+    private static class WorkerFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "DevServer-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package dev.novals.devserver;
+
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Immutable snapshot of a bundle's files, built once when the server root changes. Requests are
+ * resolved with a single map lookup; paths that are not in the index (including anything that
+ * would escape the root) simply do not exist. A root holding {@link #ARCHIVE_FILE_NAME} is an
+ * archive bundle, indexed from the ZIP's central directory and served without extraction. Files
+ * named {@code .devserver-*} belong to the plugin and are never served.
+ */
+public class BundleIndex {
+
+    public static final String ARCHIVE_FILE_NAME = ".devserver-bundle.zip";
+    /** Request paths of the ".gz" / ".br" siblings the bundle shipped with, written on install. */
+    public static final String SIDECARS_FILE_NAME = ".devserver-sidecars.json";
+    static final String PRIVATE_PREFIX = ".devserver-";
+
+    /** Bytes of an entry that is not a file of its own, such as a member of an archive bundle. */
+    public interface Content {
+        InputStream open(long start, long count) throws IOException;
+    }
+
+    public static class Entry {
+        public final File file;
+        public final long length;
+        public final long lastModified;
+        public final String mimeType;
+        public final String etag;
+        public final String lastModifiedHeader;
+        public final boolean compressible;
+        /** Where the bytes come from; {@code null} when {@link #file} holds them. */
+        public final Content content;
+        // Sidecars can appear after the index was built (lazy precompression), hence volatile.
+        public volatile Entry gzip;
+        public volatile Entry brotli;
+
+        Entry(File file, String mimeType, String encoding) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.mimeType = mimeType;
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (encoding != null ? "-" + encoding : "") + "\"";
+            this.lastModifiedHeader = formatHttpDate(lastModified);
+            this.compressible = Precompressor.isCompressible(file.getName());
+            this.content = null;
+        }
+
+        /** An entry whose bytes come from {@code content}; {@code file} only names it. */
+        Entry(File file, long length, long lastModified, String mimeType, String tag, Content content) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.mimeType = mimeType;
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "-" + tag + "\"";
+            this.lastModifiedHeader = formatHttpDate(lastModified);
+            this.compressible = Precompressor.isCompressible(file.getName());
+            this.content = content;
+        }
+
+        /** {@code count} bytes starting at {@code start}. */
+        public InputStream open(long start, long count) throws IOException {
+            return content != null ? content.open(start, count) : new FileSliceInputStream(file, start, count);
+        }
+    }
+
+    private final File root;
+    private final Map<String, Entry> entries;
+    private final Set<String> shippedSidecars;
+
+    private BundleIndex(File root, Map<String, Entry> entries, Set<String> shippedSidecars) {
+        this.root = root;
+        this.entries = entries;
+        this.shippedSidecars = shippedSidecars;
+    }
+
+    public static BundleIndex build(File root) {
+        return build(root, MimeTypes.ANDROID);
+    }
+
+    public static BundleIndex build(File root, MimeTypes mimeTypes) {
+        Map<String, Entry> entries = new HashMap<>();
+        Set<String> shippedSidecars = Collections.emptySet();
+        if (root != null) {
+            File archive = new File(root, ARCHIVE_FILE_NAME);
+            if (archive.isFile()) {
+                try {
+                    index(ZipArchive.shared(archive), mimeTypes, entries);
+                } catch (IOException e) {
+                    Logger.warn("Failed to read archive bundle " + archive + ": " + e.getMessage());
+                }
+            } else {
+                shippedSidecars = readShippedSidecars(new File(root, SIDECARS_FILE_NAME));
+                scan(root, "/", mimeTypes, shippedSidecars, entries);
+            }
+        }
+        return new BundleIndex(root, Collections.unmodifiableMap(entries), shippedSidecars);
+    }
+
+    /**
+     * Records which ".gz" / ".br" files under {@code root} came with the bundle. Their mtimes say
+     * nothing about the source's: both are links to blobs that may come from different installs.
+     * {@code paths} are relative to {@code root}.
+     */
+    public static void writeShippedSidecars(File root, java.util.Collection<String> paths) throws IOException {
+        org.json.JSONArray list = new org.json.JSONArray();
+        for (String path : paths) {
+            list.put("/" + path);
+        }
+        try (java.io.Writer writer = new java.io.OutputStreamWriter(new java.io.FileOutputStream(new File(root, SIDECARS_FILE_NAME)), java.nio.charset.StandardCharsets.UTF_8)) {
+            writer.write(new org.json.JSONObject().put("paths", list).toString());
+        } catch (org.json.JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Set<String> readShippedSidecars(File file) {
+        if (!file.isFile()) {
+            return Collections.emptySet();
+        }
+        try (InputStream in = new java.io.FileInputStream(file)) {
+            org.json.JSONArray list = new org.json.JSONObject(BundleManifest.readFully(in)).getJSONArray("paths");
+            Set<String> paths = new HashSet<>();
+            for (int i = 0; i < list.length(); i++) {
+                paths.add(list.getString(i));
+            }
+            return paths;
+        } catch (Exception e) {
+            Logger.warn("Failed to read " + file + ": " + e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public java.util.Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Resolves a request path; a trailing slash means the directory's index.html.
+     */
+    public Entry get(String uri) {
+        return entries.get(uri.endsWith("/") ? uri + "index.html" : uri);
+    }
+
+    private static void scan(File dir, String prefix, MimeTypes mimeTypes, Set<String> shippedSidecars, Map<String, Entry> entries) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(PRIVATE_PREFIX)) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                scan(file, prefix + file.getName() + "/", mimeTypes, shippedSidecars, entries);
+                continue;
+            }
+            String path = prefix + file.getName();
+            entries.put(path, entryFor(file, path, mimeTypes, shippedSidecars));
+        }
+    }
+
+    private static Entry entryFor(File file, String path, MimeTypes mimeTypes, Set<String> shippedSidecars) {
+        String mimeType = mimeTypes.getMimeType(file.getName());
+        Entry entry = new Entry(file, mimeType, null);
+        if (entry.compressible) {
+            File gzip = Precompressor.findSibling(file, ".gz", shippedSidecars.contains(path + ".gz"));
+            if (gzip != null) {
+                entry.gzip = new Entry(gzip, mimeType, "gzip");
+            }
+            File brotli = Precompressor.findSibling(file, ".br", shippedSidecars.contains(path + ".br"));
+            if (brotli != null) {
+                entry.brotli = new Entry(brotli, mimeType, "br");
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * A copy of this index with {@code paths} (request paths such as {@code /assets/app.js})
+     * looked up again on disk: files that exist are re-indexed, the rest are dropped. Changing a
+     * {@code .gz} or {@code .br} file also re-indexes the file it belongs to. Only for file
+     * bundles; archive bundles do not change.
+     */
+    public BundleIndex update(java.util.Collection<String> paths, MimeTypes mimeTypes) {
+        Map<String, Entry> next = new HashMap<>(entries);
+        java.util.Set<String> affected = new java.util.LinkedHashSet<>(paths);
+        for (String path : paths) {
+            if (path.endsWith(".gz") || path.endsWith(".br")) {
+                affected.add(path.substring(0, path.length() - 3));
+            }
+        }
+        for (String path : affected) {
+            File file = new File(root, path.substring(1));
+            if (file.isFile()) {
+                next.put(path, entryFor(file, path, mimeTypes, shippedSidecars));
+            } else {
+                next.remove(path);
+            }
+        }
+        return new BundleIndex(root, Collections.unmodifiableMap(next), shippedSidecars);
+    }
+
+    /**
+     * Indexes the members under the archive's web root (the shallowest directory holding an
+     * index.html), the same directory an extracted bundle would be served from. DEFLATED text
+     * members also get a gzip variant that passes their compressed bytes through unchanged.
+     */
+    private static void index(ZipArchive archive, MimeTypes mimeTypes, Map<String, Entry> entries) {
+        String webRoot = webRootOf(archive);
+        String base = archive.getFile().getPath() + "!/";
+        long lastModified = archive.getFile().lastModified();
+        for (ZipArchive.Member member : archive.members()) {
+            if (!member.path.startsWith(webRoot)) {
+                continue;
+            }
+            String name = member.path.substring(webRoot.length());
+            String mimeType = mimeTypes.getMimeType(name);
+            String tag = Long.toHexString(member.crc);
+            Entry entry = new Entry(new File(base + member.path), member.size, lastModified, mimeType, tag, (start, count) -> archive.open(member, start, count));
+            if (entry.compressible) {
+                ZipArchive.Member gzip = archive.get(member.path + ".gz");
+                ZipArchive.Member brotli = archive.get(member.path + ".br");
+                if (gzip != null) {
+                    entry.gzip = new Entry(new File(base + gzip.path), gzip.size, lastModified, mimeType, tag + "-gzip", (start, count) -> archive.open(gzip, start, count));
+                } else if (member.method == ZipArchive.METHOD_DEFLATED) {
+                    entry.gzip = new Entry(new File(base + member.path + ".gz"), ZipArchive.gzipLength(member), lastModified, mimeType, tag + "-gzip", (start, count) -> archive.openGzip(member, start, count));
+                }
+                if (brotli != null) {
+                    entry.brotli = new Entry(new File(base + brotli.path), brotli.size, lastModified, mimeType, tag + "-br", (start, count) -> archive.open(brotli, start, count));
+                }
+            }
+            entries.put("/" + name, entry);
+        }
+    }
+
+    /** Directory of the shallowest index.html in {@code archive}, as {@code AssetManager} picks it for extracted bundles. */
+    static String webRootOf(ZipArchive archive) {
+        String webRoot = null;
+        for (ZipArchive.Member member : archive.members()) {
+            String path = member.path;
+            if (!path.equals("index.html") && !path.endsWith("/index.html")) {
+                continue;
+            }
+            String dir = path.substring(0, path.length() - "index.html".length());
+            if (webRoot == null || depth(dir) < depth(webRoot) || (depth(dir) == depth(webRoot) && dir.compareTo(webRoot) < 0)) {
+                webRoot = dir;
+            }
+        }
+        return webRoot != null ? webRoot : "";
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    static String formatHttpDate(long time) {
+        return httpDateFormat().format(new Date(time));
+    }
+
+    static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
@@ -0,0 +1,165 @@
+package dev.novals.devserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Per-file content hashes of a bundle, as published by the update server:
+ *
+ * <pre>
+ * { "base_url": "https://cdn.example.com/bundles/42/",
+ *   "files": [ { "path": "index.html", "sha256": "...", "size": 1234 } ] }
+ * </pre>
+ *
+ * The same format (plus an "mtime" per file) is persisted next to installed bundles
+ * so later delta updates can compare without re-hashing.
+ */
+public class BundleManifest {
+
+    public static class Entry {
+        public final String path;
+        public final String sha256;
+        public final long size;
+        public long mtime;
+
+        public Entry(String path, String sha256, long size) {
+            this.path = path;
+            this.sha256 = sha256;
+            this.size = size;
+        }
+    }
+
+    private final String baseUrl;
+    private final Map<String, Entry> entries;
+
+    public BundleManifest(String baseUrl, Map<String, Entry> entries) {
+        this.baseUrl = baseUrl;
+        this.entries = entries;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public static BundleManifest fetch(String manifestUrl) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(manifestUrl).openConnection();
+        try {
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new Exception("Manifest request returned HTTP " + connection.getResponseCode() + " " + connection.getResponseMessage());
+            }
+            BundleManifest manifest = parse(new JSONObject(readFully(connection.getInputStream())));
+            String base = manifest.baseUrl != null ? new URL(new URL(manifestUrl), manifest.baseUrl).toString() : manifestUrl;
+            return new BundleManifest(base, manifest.entries);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public static BundleManifest parse(JSONObject json) throws JSONException {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        JSONArray files = json.getJSONArray("files");
+        for (int i = 0; i < files.length(); i++) {
+            JSONObject file = files.getJSONObject(i);
+            String path = normalizePath(file.getString("path"));
+            Entry entry = new Entry(path, file.getString("sha256").toLowerCase(), file.optLong("size", -1));
+            entry.mtime = file.optLong("mtime", 0);
+            entries.put(path, entry);
+        }
+        return new BundleManifest(json.has("base_url") ? json.getString("base_url") : null, entries);
+    }
+
+    public static BundleManifest load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return parse(new JSONObject(readFully(in)));
+        } catch (Exception e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        try {
+            JSONArray files = new JSONArray();
+            for (Entry entry : entries.values()) {
+                JSONObject json = new JSONObject();
+                json.put("path", entry.path);
+                json.put("sha256", entry.sha256);
+                json.put("size", entry.size);
+                json.put("mtime", entry.mtime);
+                files.put(json);
+            }
+            JSONObject root = new JSONObject();
+            root.put("files", files);
+
+            file.getParentFile().mkdirs();
+            File tmp = new File(file.getPath() + ".tmp");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                writer.write(root.toString());
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to write " + file);
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public List<Entry> list() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Rejects absolute and parent-relative paths so a manifest can never write outside the bundle.
+     */
+    static String normalizePath(String path) throws JSONException {
+        String normalized = path.replace('\\', '/');
+        while (normalized.startsWith("./")) {
+            normalized = normalized.substring(2);
+        }
+        if (normalized.isEmpty() || normalized.startsWith("/") || normalized.equals("..") || normalized.startsWith("../") || normalized.contains("/../") || normalized.endsWith("/..")) {
+            throw new JSONException("Invalid manifest path: " + path);
+        }
+        return normalized;
+    }
+
+    static String readFully(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, count);
+            }
+        }
+        return sb.toString();
+    }
+}
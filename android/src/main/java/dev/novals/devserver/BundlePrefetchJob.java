@@ -0,0 +1,128 @@
+package dev.novals.devserver;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.PersistableBundle;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Downloads and prepares the next bundle while the system considers the device idle enough
+ * (by default on an unmetered network), then records it as pending. The switch happens on the
+ * next cold start, see {@link DevServer#promotePendingBundle}, so nothing reloads mid-session.
+ */
+public class BundlePrefetchJob extends JobService {
+
+    private static final int JOB_ID = 0x44657653;
+
+    private TaskScheduler.Task<Boolean> task;
+
+    public static boolean schedule(Context context, PersistableBundle extras, boolean unmetered, boolean charging, boolean idle) {
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, BundlePrefetchJob.class))
+            .setRequiredNetworkType(unmetered ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+            .setRequiresCharging(charging)
+            .setRequiresDeviceIdle(idle)
+            .setBackoffCriteria(60_000, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+            .setExtras(extras)
+            .build();
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        return scheduler != null && scheduler.schedule(job) == JobScheduler.RESULT_SUCCESS;
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        PersistableBundle extras = params.getExtras();
+        String url = extras.getString("url");
+        if (url == null) {
+            return false;
+        }
+        String channel = extras.getString("channel", "production");
+        String precompress = extras.getString("precompress", Precompressor.MODE_NONE);
+        String serverUrl = extras.getString("serverUrl");
+        DevServerConfig options = new DevServerConfig();
+        options.extractionMode = extras.getString("extractionMode", options.extractionMode);
+        // Without a loopback URL the bundle will be served in intercept mode, which cannot read archives.
+        options.serveMode = serverUrl != null ? DevServerConfig.SERVE_MODE_SERVER : DevServerConfig.SERVE_MODE_INTERCEPT;
+        options.storageQuotaMB = extras.getInt("storageQuotaMB", 0);
+        options.maxBundleAgeDays = extras.getInt("maxBundleAgeDays", 0);
+
+        task = TaskScheduler.shared().submit("prefetch|" + url + "|" + channel, url, null, TaskScheduler.PRIORITY_LOW, (token) -> prefetch(url, channel, precompress, serverUrl, options, token));
+        task.future.whenComplete((prepared, error) -> {
+            boolean retry = error instanceof IOException;
+            if (error != null && !(error instanceof CancellationException)) {
+                Logger.warn("Bundle prefetch failed: " + error.getMessage());
+            }
+            jobFinished(params, retry);
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Constraints no longer hold: stop now, the partial download resumes on the next run.
+        if (task != null) {
+            task.cancel();
+        }
+        return true;
+    }
+
+    private boolean prefetch(String url, String channel, String precompress, String serverUrl, DevServerConfig options, CancellationToken token) throws Exception {
+        AssetManager assetManager = new AssetManager(this);
+        assetManager.setPrecompressOnInstall(Precompressor.MODE_INSTALL.equals(precompress));
+        assetManager.setParallelExtraction(options.isParallelExtraction());
+        assetManager.setArchiveInstall(options.isArchiveInstall());
+        assetManager.setStorageLimits(options.getStorageQuotaBytes(), options.getMaxBundleAgeMillis());
+        SharedPreferences prefs = getSharedPreferences(DevServer.PREFS_NAME, MODE_PRIVATE);
+        String activeAsset = prefs.getString("active_asset", null);
+
+        JSObject data = new UpdateChecker(this).check(url, channel, activeAsset, false, (zip, bundleId, zipToken) -> {
+            if (!bundleId.equals(activeAsset)) {
+                assetManager.installFromStream(zip, bundleId, null, url, zipToken);
+            }
+            JSObject installed = new JSObject();
+            installed.put("installedAsset", bundleId);
+            return installed;
+        }, token);
+
+        String assetName = data.getString("installedAsset");
+        if (assetName == null) {
+            Boolean isUpdate = data.getBool("isUpdateAvailable");
+            String downloadUrl = data.getString("downloadUrl");
+            String manifestUrl = data.getString("manifestUrl");
+            if (isUpdate == null || !isUpdate || (downloadUrl == null && manifestUrl == null)) {
+                return false;
+            }
+            JSObject latestBundle = data.getJSObject("latestBundle");
+            assetName = latestBundle != null && latestBundle.has("id") ? String.valueOf(latestBundle.get("id")) : assetManager.getAssetNameFromUrl(manifestUrl != null ? manifestUrl : downloadUrl);
+            if (assetName.equals(activeAsset)) {
+                return false;
+            }
+            if (manifestUrl != null) {
+                assetManager.downloadDelta(manifestUrl, assetName, activeAsset, true, token);
+            } else {
+                assetManager.downloadAndExtract(downloadUrl, assetName, true, null, token);
+            }
+        }
+        token.throwIfCancelled();
+        if (assetName.equals(activeAsset)) {
+            return false;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit().putString("pending_asset", assetName);
+        if (serverUrl != null) {
+            editor.putString("pending_server_url", serverUrl);
+        } else {
+            editor.remove("pending_server_url");
+        }
+        editor.commit();
+        assetManager.enforceStorageLimits(java.util.Arrays.asList(activeAsset, assetName));
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Metadata about every installed bundle, written when a bundle is published. Each bundle has its
+ * own record in {@code .meta/<name>.bundle.json}, and {@code .meta/index.json} holds all of them, so
+ * launching or listing bundles is one small read instead of a walk over the bundle trees.
+ */
+public class BundleRegistry {
+
+    private static final String INDEX_FILE_NAME = "index.json";
+    private static final Map<String, BundleRegistry> instances = new HashMap<>();
+
+    public static class Record {
+        public String name;
+        /** Directory containing index.html, relative to the bundle directory ("" for the bundle root). */
+        public String webRoot = "";
+        public int fileCount;
+        public long totalSize;
+        public String hash;
+        public long installedAt;
+        /** Last time the bundle was applied or launched; eviction removes the least recently used first. */
+        public long lastUsedAt;
+        public String sourceUrl;
+
+        public JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("webRoot", webRoot);
+            json.put("fileCount", fileCount);
+            json.put("totalSize", totalSize);
+            json.put("hash", hash);
+            json.put("installedAt", installedAt);
+            json.put("lastUsedAt", lastUsedAt);
+            json.put("sourceUrl", sourceUrl);
+            return json;
+        }
+
+        static Record fromJSON(JSONObject json) {
+            Record record = new Record();
+            record.name = json.optString("name", null);
+            record.webRoot = json.optString("webRoot", "");
+            record.fileCount = json.optInt("fileCount", 0);
+            record.totalSize = json.optLong("totalSize", 0);
+            record.hash = json.optString("hash", null);
+            record.installedAt = json.optLong("installedAt", 0);
+            record.lastUsedAt = json.optLong("lastUsedAt", record.installedAt);
+            record.sourceUrl = json.optString("sourceUrl", null);
+            return record;
+        }
+    }
+
+    private final File metaDir;
+    private Map<String, Record> records;
+
+    private BundleRegistry(File metaDir) {
+        this.metaDir = metaDir;
+    }
+
+    /** One registry per directory, shared by every {@link AssetManager} in the process. */
+    public static BundleRegistry forDir(File metaDir) {
+        synchronized (instances) {
+            BundleRegistry registry = instances.get(metaDir.getAbsolutePath());
+            if (registry == null) {
+                registry = new BundleRegistry(metaDir);
+                instances.put(metaDir.getAbsolutePath(), registry);
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * Loads the index; {@code false} if there is none yet and the caller should rebuild it.
+     */
+    public synchronized boolean load() {
+        if (records != null) {
+            return true;
+        }
+        File indexFile = new File(metaDir, INDEX_FILE_NAME);
+        if (!indexFile.isFile()) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(indexFile)) {
+            JSONArray bundles = new JSONObject(BundleManifest.readFully(in)).getJSONArray("bundles");
+            Map<String, Record> loaded = new LinkedHashMap<>();
+            for (int i = 0; i < bundles.length(); i++) {
+                Record record = Record.fromJSON(bundles.getJSONObject(i));
+                if (record.name != null) {
+                    loaded.put(record.name, record);
+                }
+            }
+            records = loaded;
+            return true;
+        } catch (Exception e) {
+            indexFile.delete();
+            return false;
+        }
+    }
+
+    /** The stored record of one bundle, used when rebuilding a lost index. */
+    public Record readRecord(String name) {
+        File file = getRecordFile(name);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return Record.fromJSON(new JSONObject(BundleManifest.readFully(in)));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Replaces the whole index, e.g. after rebuilding it from the bundle directories. */
+    public synchronized void reset(List<Record> list) {
+        records = new LinkedHashMap<>();
+        for (Record record : list) {
+            records.put(record.name, record);
+        }
+        saveIndex();
+    }
+
+    public synchronized Record get(String name) {
+        return records != null ? records.get(name) : null;
+    }
+
+    public synchronized List<Record> list() {
+        return records != null ? new ArrayList<>(records.values()) : new ArrayList<>();
+    }
+
+    public synchronized void put(Record record) {
+        if (records == null) {
+            records = new LinkedHashMap<>();
+        }
+        records.remove(record.name);
+        records.put(record.name, record);
+        try {
+            write(getRecordFile(record.name), record.toJSON());
+        } catch (Exception e) {
+            com.getcapacitor.Logger.warn("Failed to write bundle record for " + record.name + ": " + e.getMessage());
+        }
+        saveIndex();
+    }
+
+    /** Records that the bundle was just used. */
+    public synchronized void touch(String name) {
+        Record record = records != null ? records.get(name) : null;
+        if (record != null) {
+            record.lastUsedAt = System.currentTimeMillis();
+            try {
+                write(getRecordFile(name), record.toJSON());
+            } catch (Exception e) {
+                com.getcapacitor.Logger.warn("Failed to write bundle record for " + name + ": " + e.getMessage());
+            }
+            saveIndex();
+        }
+    }
+
+    public synchronized void remove(String name) {
+        getRecordFile(name).delete();
+        if (records != null && records.remove(name) != null) {
+            saveIndex();
+        }
+    }
+
+    private void saveIndex() {
+        try {
+            JSONArray bundles = new JSONArray();
+            for (Record record : records.values()) {
+                bundles.put(record.toJSON());
+            }
+            JSONObject root = new JSONObject();
+            root.put("bundles", bundles);
+            write(new File(metaDir, INDEX_FILE_NAME), root);
+        } catch (Exception e) {
+            // The index is rebuilt from the per-bundle records if it is missing.
+            new File(metaDir, INDEX_FILE_NAME).delete();
+        }
+    }
+
+    private File getRecordFile(String name) {
+        return new File(metaDir, name + ".bundle.json");
+    }
+
+    private static void write(File file, JSONObject json) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package dev.novals.devserver;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves the active bundle from inside the WebView's request interception, without a loopback
+ * socket. Capacitor's own local server is pointed at the same web root and keeps answering HTML
+ * documents, because it injects the native bridge script into them; every other asset (the
+ * hundreds of JS modules, CSS, images, media) is answered here from the bundle index and cache.
+ * Requests it does not answer, and all other callbacks, go to the client the bridge had before.
+ */
+public class BundleWebViewClient extends DelegatingWebViewClient {
+
+    private final Bridge bridge;
+    private final HotFileCache cache;
+    private volatile BundleIndex index;
+
+    public BundleWebViewClient(Bridge bridge, DevServerConfig config) {
+        super(bridge);
+        this.bridge = bridge;
+        this.cache = new HotFileCache(config.hotCacheSize, config.hotCacheMaxFileSize);
+    }
+
+    public void setRootDir(File rootDir) {
+        BundleIndex next = rootDir != null ? BundleIndex.build(rootDir) : null;
+        index = next;
+        cache.clear();
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        BundleIndex current = index;
+        Uri url = request.getUrl();
+        if (current != null && "GET".equals(request.getMethod()) && bridge.getHost().equals(url.getHost())) {
+            String path = url.getPath();
+            BundleIndex.Entry entry = current.get(path == null || path.isEmpty() ? "/" : path);
+            if (entry != null && !entry.mimeType.equals("text/html")) {
+                try {
+                    return respond(entry, request.getRequestHeaders());
+                } catch (IOException e) {
+                    Logger.debug("Falling back to the bridge for " + path + ": " + e.getMessage());
+                }
+            }
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+
+    /**
+     * A 200, a 206 for a satisfiable Range or a 416, decided as the loopback server decides them.
+     * Several ranges are coalesced into one spanning them all, so the body needs no multipart
+     * framing. A request whose validators match still gets the whole file, from the hot-file cache
+     * where possible: WebResourceResponse rejects every 3xx status, 304 included.
+     */
+    private WebResourceResponse respond(BundleIndex.Entry entry, Map<String, String> requestHeaders) throws IOException {
+        Map<String, String> request = new java.util.TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        request.putAll(requestHeaders);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Ranges", "bytes");
+        headers.put("Cache-Control", "no-cache");
+        headers.put("ETag", entry.etag);
+        headers.put("Last-Modified", entry.lastModifiedHeader);
+
+        String rangeHeader = request.get("Range");
+        if (rangeHeader != null && LocalServer.rangeApplies(request.get("If-Range"), entry)) {
+            long[][] ranges = LocalServer.parseRanges(rangeHeader, entry.length);
+            if (ranges == null) {
+                headers.put("Content-Range", "bytes */" + entry.length);
+                headers.put("Content-Length", "0");
+                return new WebResourceResponse(entry.mimeType, null, 416, "Range Not Satisfiable", headers, new ByteArrayInputStream(new byte[0]));
+            }
+            long start = ranges[0][0];
+            long end = ranges[0][1];
+            for (long[] range : ranges) {
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+            }
+            long count = end - start + 1;
+            headers.put("Content-Range", "bytes " + start + "-" + end + "/" + entry.length);
+            headers.put("Content-Length", String.valueOf(count));
+            return new WebResourceResponse(entry.mimeType, null, 206, "Partial Content", headers, LocalServer.open(entry, cache.get(entry), start, count));
+        }
+
+        headers.put("Content-Length", String.valueOf(entry.length));
+        return new WebResourceResponse(entry.mimeType, null, 200, "OK", headers, LocalServer.open(entry, cache.get(entry), 0, entry.length));
+    }
+}
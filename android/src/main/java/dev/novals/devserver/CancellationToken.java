@@ -0,0 +1,69 @@
+package dev.novals.devserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for long-running I/O. Work checks {@link #throwIfCancelled()} between
+ * steps, and blocking resources registered with {@link #onCancel(Closeable)} are closed so a
+ * thread stuck in a socket read wakes up immediately.
+ */
+public class CancellationToken {
+
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private final List<Closeable> resources = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Cancelled");
+        }
+    }
+
+    public void onCancel(Closeable resource) {
+        if (this == NONE) {
+            return;
+        }
+        boolean closeNow;
+        synchronized (resources) {
+            closeNow = cancelled;
+            if (!closeNow) {
+                resources.add(resource);
+            }
+        }
+        if (closeNow) {
+            closeQuietly(resource);
+        }
+    }
+
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        List<Closeable> toClose;
+        synchronized (resources) {
+            cancelled = true;
+            toClose = new ArrayList<>(resources);
+            resources.clear();
+        }
+        for (Closeable resource : toClose) {
+            closeQuietly(resource);
+        }
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            // Best effort: the owning thread will see the failure on its next read.
+        }
+    }
+}
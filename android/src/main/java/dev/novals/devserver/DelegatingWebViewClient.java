@@ -0,0 +1,155 @@
+package dev.novals.devserver;
+
+import android.graphics.Bitmap;
+import android.net.http.SslError;
+import android.os.Message;
+import android.view.KeyEvent;
+import android.webkit.ClientCertRequest;
+import android.webkit.HttpAuthHandler;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.SafeBrowsingResponse;
+import android.webkit.SslErrorHandler;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+/**
+ * A WebView client installed in front of the one the bridge already has, which may be the host
+ * app's own {@link BridgeWebViewClient} subclass. Every callback is forwarded to that client, so
+ * subclasses only handle what they add and the app keeps its navigation, error and SSL handling.
+ */
+public abstract class DelegatingWebViewClient extends BridgeWebViewClient {
+
+    private final BridgeWebViewClient delegate;
+
+    protected DelegatingWebViewClient(Bridge bridge) {
+        super(bridge);
+        BridgeWebViewClient current = bridge.getWebViewClient();
+        this.delegate = current != null ? current : new BridgeWebViewClient(bridge);
+    }
+
+    /** The client this one was installed in front of. */
+    public BridgeWebViewClient getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        return delegate.shouldInterceptRequest(view, request);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+        return delegate.shouldInterceptRequest(view, url);
+    }
+
+    @Override
+    public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+        return delegate.shouldOverrideUrlLoading(view, request);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean shouldOverrideUrlLoading(WebView view, String url) {
+        return delegate.shouldOverrideUrlLoading(view, url);
+    }
+
+    @Override
+    public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        delegate.onPageStarted(view, url, favicon);
+    }
+
+    @Override
+    public void onPageFinished(WebView view, String url) {
+        delegate.onPageFinished(view, url);
+    }
+
+    @Override
+    public void onLoadResource(WebView view, String url) {
+        delegate.onLoadResource(view, url);
+    }
+
+    @Override
+    public void onPageCommitVisible(WebView view, String url) {
+        delegate.onPageCommitVisible(view, url);
+    }
+
+    @Override
+    public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+        delegate.onReceivedError(view, request, error);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void onReceivedError(WebView view, int errorCode, String description, String failingUrl) {
+        delegate.onReceivedError(view, errorCode, description, failingUrl);
+    }
+
+    @Override
+    public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
+        delegate.onReceivedHttpError(view, request, errorResponse);
+    }
+
+    @Override
+    public void onFormResubmission(WebView view, Message dontResend, Message resend) {
+        delegate.onFormResubmission(view, dontResend, resend);
+    }
+
+    @Override
+    public void doUpdateVisitedHistory(WebView view, String url, boolean isReload) {
+        delegate.doUpdateVisitedHistory(view, url, isReload);
+    }
+
+    @Override
+    public void onReceivedSslError(WebView view, SslErrorHandler handler, SslError error) {
+        delegate.onReceivedSslError(view, handler, error);
+    }
+
+    @Override
+    public void onReceivedClientCertRequest(WebView view, ClientCertRequest request) {
+        delegate.onReceivedClientCertRequest(view, request);
+    }
+
+    @Override
+    public void onReceivedHttpAuthRequest(WebView view, HttpAuthHandler handler, String host, String realm) {
+        delegate.onReceivedHttpAuthRequest(view, handler, host, realm);
+    }
+
+    @Override
+    public boolean shouldOverrideKeyEvent(WebView view, KeyEvent event) {
+        return delegate.shouldOverrideKeyEvent(view, event);
+    }
+
+    @Override
+    public void onUnhandledKeyEvent(WebView view, KeyEvent event) {
+        delegate.onUnhandledKeyEvent(view, event);
+    }
+
+    @Override
+    public void onScaleChanged(WebView view, float oldScale, float newScale) {
+        delegate.onScaleChanged(view, oldScale, newScale);
+    }
+
+    @Override
+    public void onReceivedLoginRequest(WebView view, String realm, String account, String args) {
+        delegate.onReceivedLoginRequest(view, realm, account, args);
+    }
+
+    // Only called from API 26 on.
+    @Override
+    @android.annotation.TargetApi(26)
+    public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+        return delegate.onRenderProcessGone(view, detail);
+    }
+
+    // Only called from API 27 on.
+    @Override
+    @android.annotation.TargetApi(27)
+    public void onSafeBrowsingHit(WebView view, WebResourceRequest request, int threatType, SafeBrowsingResponse callback) {
+        delegate.onSafeBrowsingHit(view, request, threatType, callback);
+    }
+}
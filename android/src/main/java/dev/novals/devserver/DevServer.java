@@ -4,41 +4,122 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import com.getcapacitor.CapConfig;
 import com.getcapacitor.Logger;
+import java.lang.reflect.Field;
 
 public class DevServer {
+    static final String PREFS_NAME = "capacitor_dev_server_prefs";
     public static String sessionUrl = null;
+    private static boolean pendingChecked = false;
+
+    /** Server settings read from preferences, kept until a preference changes. */
+    static class LaunchState {
+        final String savedUrl;
+        final String activeAsset;
+
+        LaunchState(SharedPreferences prefs) {
+            this.savedUrl = prefs.getString("server_url", null);
+            this.activeAsset = prefs.getString("active_asset", null);
+        }
+    }
+
+    private static volatile LaunchState launchState;
+    // Held strongly: SharedPreferences only keeps weak references to its listeners.
+    private static SharedPreferences.OnSharedPreferenceChangeListener prefsListener;
+
+    /** The CapConfig fields we patch, resolved and made accessible once per process. */
+    private static class ConfigFields {
+        static final Field serverUrl = find("serverUrl");
+        static final Field androidScheme = find("androidScheme");
+        static final Field allowMixedContent = find("allowMixedContent");
+
+        private static Field find(String name) {
+            try {
+                Field field = CapConfig.class.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (Exception e) {
+                Logger.error("CapConfig has no field " + name, e);
+                return null;
+            }
+        }
+    }
 
     public static CapConfig getCapacitorConfig(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences("capacitor_dev_server_prefs", Context.MODE_PRIVATE);
-        String savedUrl = prefs.getString("server_url", null);
-        String serverUrl = sessionUrl != null ? sessionUrl : savedUrl;
+        long start = System.nanoTime();
+        LaunchState state = getLaunchState(context);
+        String serverUrl = sessionUrl != null ? sessionUrl : state.savedUrl;
 
+        long loadStart = System.nanoTime();
+        CapConfig config = CapConfig.loadDefault(context);
+        StartupTimings.phase("capConfigLoad", loadStart);
         try {
-            CapConfig config = CapConfig.loadDefault(context);
-            
             if (serverUrl != null) {
                 // Patch the server URL
-                java.lang.reflect.Field urlField = CapConfig.class.getDeclaredField("serverUrl");
-                urlField.setAccessible(true);
-                urlField.set(config, serverUrl);
+                ConfigFields.serverUrl.set(config, serverUrl);
 
                 // Infer scheme and cleartext (allowMixedContent)
                 String androidScheme = serverUrl.startsWith("http://") ? "http" : "https";
                 boolean allowMixed = serverUrl.startsWith("http://");
-
-                java.lang.reflect.Field schemeField = CapConfig.class.getDeclaredField("androidScheme");
-                schemeField.setAccessible(true);
-                schemeField.set(config, androidScheme);
-
-                java.lang.reflect.Field mixedField = CapConfig.class.getDeclaredField("allowMixedContent");
-                mixedField.setAccessible(true);
-                mixedField.set(config, allowMixed);
+                ConfigFields.androidScheme.set(config, androidScheme);
+                ConfigFields.allowMixedContent.set(config, allowMixed);
             }
-
-            return config;
         } catch (Exception e) {
             Logger.error("Failed to patch Capacitor Config", e);
-            return CapConfig.loadDefault(context);
+            config = CapConfig.loadDefault(context);
+        }
+        StartupTimings.phase("capacitorConfig", start);
+        StartupTimings.mark("configReady");
+        return config;
+    }
+
+    /**
+     * The launch settings, read from preferences once and then only again after they change.
+     */
+    static LaunchState getLaunchState(Context context) {
+        LaunchState state = launchState;
+        if (state != null) {
+            return state;
+        }
+        synchronized (DevServer.class) {
+            if (launchState == null) {
+                SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+                promotePendingBundle(context, prefs);
+                if (prefsListener == null) {
+                    prefsListener = (changed, key) -> launchState = null;
+                    prefs.registerOnSharedPreferenceChangeListener(prefsListener);
+                }
+                launchState = new LaunchState(prefs);
+            }
+            return launchState;
+        }
+    }
+
+    /**
+     * Makes a bundle prepared in the background the active one. Runs once per process, so the
+     * switch only ever happens on a cold start and never reloads a running session.
+     */
+    static synchronized void promotePendingBundle(Context context, SharedPreferences prefs) {
+        if (pendingChecked) {
+            return;
+        }
+        pendingChecked = true;
+        String pending = prefs.getString("pending_asset", null);
+        if (pending == null) {
+            return;
+        }
+        SharedPreferences.Editor editor = prefs.edit()
+            .remove("pending_asset")
+            .remove("pending_server_url");
+        if (sessionUrl == null && new AssetManager(context).getAssetPath(pending) != null) {
+            String pendingServerUrl = prefs.getString("pending_server_url", null);
+            editor.putString("active_asset", pending);
+            if (pendingServerUrl != null) {
+                editor.putString("server_url", pendingServerUrl);
+            } else {
+                editor.remove("server_url");
+            }
+            Logger.info("Switching to prefetched bundle " + pending);
         }
+        editor.commit();
     }
 }
@@ -0,0 +1,80 @@
+package dev.novals.devserver;
+
+import com.getcapacitor.PluginConfig;
+
+/**
+ * Tuning options read from the "DevServer" entry of the "plugins" section in capacitor.config.
+ */
+public class DevServerConfig {
+
+    public static final String SERVE_MODE_SERVER = "server";
+    public static final String SERVE_MODE_INTERCEPT = "intercept";
+    public static final String EXTRACTION_STREAMING = "streaming";
+    public static final String EXTRACTION_PARALLEL = "parallel";
+    public static final String EXTRACTION_ARCHIVE = "archive";
+
+    public int hotCacheSize = 8 * 1024 * 1024;
+    public int hotCacheMaxFileSize = 512 * 1024;
+    public String precompress = Precompressor.MODE_NONE;
+    public String serveMode = SERVE_MODE_SERVER;
+    public int maxConnections = 16;
+    public boolean virtualThreads = false;
+    public int socketTimeoutMs = 5000;
+    public int maxConcurrentTasks = TaskScheduler.DEFAULT_MAX_CONCURRENT;
+    public String extractionMode = EXTRACTION_STREAMING;
+    public int storageQuotaMB = 0;
+    public int maxBundleAgeDays = 0;
+    public int statsIntervalMs = 0;
+    public boolean readahead = true;
+    public boolean preloadHints = false;
+    public String devToken = null;
+    public boolean devAutoReload = false;
+
+    public static DevServerConfig from(PluginConfig pluginConfig) {
+        DevServerConfig config = new DevServerConfig();
+        if (pluginConfig == null) {
+            return config;
+        }
+        config.hotCacheSize = pluginConfig.getInt("hotCacheSize", config.hotCacheSize);
+        config.hotCacheMaxFileSize = pluginConfig.getInt("hotCacheMaxFileSize", config.hotCacheMaxFileSize);
+        config.precompress = pluginConfig.getString("precompress", config.precompress);
+        config.serveMode = pluginConfig.getString("serveMode", config.serveMode);
+        config.maxConnections = pluginConfig.getInt("maxConnections", config.maxConnections);
+        config.virtualThreads = pluginConfig.getBoolean("virtualThreads", config.virtualThreads);
+        config.socketTimeoutMs = pluginConfig.getInt("socketTimeoutMs", config.socketTimeoutMs);
+        config.maxConcurrentTasks = pluginConfig.getInt("maxConcurrentTasks", config.maxConcurrentTasks);
+        config.extractionMode = pluginConfig.getString("extractionMode", config.extractionMode);
+        config.storageQuotaMB = pluginConfig.getInt("storageQuotaMB", config.storageQuotaMB);
+        config.maxBundleAgeDays = pluginConfig.getInt("maxBundleAgeDays", config.maxBundleAgeDays);
+        config.statsIntervalMs = pluginConfig.getInt("statsIntervalMs", config.statsIntervalMs);
+        config.readahead = pluginConfig.getBoolean("readahead", config.readahead);
+        config.preloadHints = pluginConfig.getBoolean("preloadHints", config.preloadHints);
+        config.devToken = pluginConfig.getString("devToken", config.devToken);
+        config.devAutoReload = pluginConfig.getBoolean("devAutoReload", config.devAutoReload);
+        return config;
+    }
+
+    public boolean isInterceptMode() {
+        return SERVE_MODE_INTERCEPT.equals(serveMode);
+    }
+
+    public long getStorageQuotaBytes() {
+        return storageQuotaMB * 1024L * 1024L;
+    }
+
+    public long getMaxBundleAgeMillis() {
+        return maxBundleAgeDays * 24L * 60 * 60 * 1000;
+    }
+
+    public boolean isParallelExtraction() {
+        return EXTRACTION_PARALLEL.equals(extractionMode);
+    }
+
+    /**
+     * Bundles are kept as their ZIP and served from it. Only the local server reads archives, so
+     * intercept mode keeps extracting.
+     */
+    public boolean isArchiveInstall() {
+        return EXTRACTION_ARCHIVE.equals(extractionMode) && !isInterceptMode();
+    }
+}
@@ -4,47 +4,187 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.getcapacitor.JSObject;
+import com.getcapacitor.Logger;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 
 @CapacitorPlugin(name = "DevServer")
 public class DevServerPlugin extends Plugin {
 
     private static final String PREFS_NAME = "capacitor_dev_server_prefs";
     private AssetManager assetManager;
-    private static LocalServer localServer;
+    private DevServerConfig config;
+    private UpdateChecker updateChecker;
+    private static volatile LocalServer localServer;
+    private static String activeAsset;
+    private TaskScheduler scheduler;
+    private BundleWebViewClient bundleWebViewClient;
+    private volatile File inProcessRoot;
+    private android.os.Handler statsHandler;
+    private Runnable statsTask;
     private static final int LOCAL_PORT = 8080; // Could be dynamic
 
     @Override
     public void load() {
+        long start = System.nanoTime();
         super.load();
         assetManager = new AssetManager(getContext());
+        config = DevServerConfig.from(getConfig());
+        updateChecker = new UpdateChecker(getContext());
+        assetManager.setPrecompressOnInstall(Precompressor.MODE_INSTALL.equals(config.precompress));
+        assetManager.setParallelExtraction(config.isParallelExtraction());
+        assetManager.setArchiveInstall(config.isArchiveInstall());
+        assetManager.setStorageLimits(config.getStorageQuotaBytes(), config.getMaxBundleAgeMillis());
+        // Process-wide, so tasks outlive an activity recreate and are shared with the prefetch job.
+        scheduler = TaskScheduler.shared(config.maxConcurrentTasks);
+        scheduler.execute(TaskScheduler.PRIORITY_LOW, assetManager::recoverInterruptedInstalls);
         
         // Check for persisted asset
-        String persistedAsset = getPrefs().getString("active_asset", null);
-        if (persistedAsset != null) {
-            String assetPath = assetManager.getAssetPath(persistedAsset);
-            if (assetPath != null) {
-                File rootDir = new java.io.File(assetPath);
-                File webRootDir = findWebRoot(rootDir);
-                if (webRootDir == null) webRootDir = rootDir;
-                
-                try {
-                    startLocalServer(webRootDir);
-                    // Note: We don't need to patch CapConfig here because DevServer.java logic handled the `server_url` preference which was set in applyAsset.
-                    // We just need to make sure the server IS RUNNING so when WebView calls, it works.
-                } catch (IOException e) {
-                   // Log error
-                   e.printStackTrace();
+        String persistedAsset = DevServer.getLaunchState(getContext()).activeAsset;
+        scheduler.execute(TaskScheduler.PRIORITY_LOW, () -> {
+            if (persistedAsset != null) {
+                assetManager.markUsed(persistedAsset);
+            }
+            enforceStorageLimits(null);
+        });
+        if (config.isInterceptMode() && !isLocalServerUrlActive()) {
+            String asset = activeAsset != null ? activeAsset : persistedAsset;
+            File webRootDir = asset != null ? resolveWebRoot(asset) : null;
+            if (webRootDir != null) {
+                serveInProcess(webRootDir);
+                activeAsset = asset;
+            }
+        } else if (persistedAsset != null) {
+            File webRootDir = resolveWebRoot(persistedAsset);
+            if (webRootDir != null) {
+                activeAsset = persistedAsset;
+                // Note: We don't need to patch CapConfig here because DevServer.java logic handled the `server_url` preference which was set in applyAsset.
+                // We just need to make sure the server IS RUNNING so when WebView calls, it works.
+                startLocalServerAsync(persistedAsset, webRootDir);
+            }
+        }
+        if (config.statsIntervalMs > 0) {
+            startStatsUpdates(config.statsIntervalMs);
+        }
+        StartupTimings.phase("pluginLoad", start);
+        StartupTimings.mark("pluginLoaded");
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        if (statsHandler != null) {
+            statsHandler.removeCallbacks(statsTask);
+        }
+        super.handleOnDestroy();
+    }
+
+    /** Emits "statsUpdate" every {@code intervalMs} while anyone listens for it. */
+    private void startStatsUpdates(int intervalMs) {
+        statsHandler = new android.os.Handler(android.os.Looper.getMainLooper());
+        statsTask = new Runnable() {
+            @Override
+            public void run() {
+                if (hasListeners("statsUpdate")) {
+                    notifyListeners("statsUpdate", DevServerStats.toJSObject(localServer));
                 }
+                statsHandler.postDelayed(this, intervalMs);
+            }
+        };
+        statsHandler.postDelayed(statsTask, intervalMs);
+    }
+
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        JSObject stats = DevServerStats.toJSObject(localServer);
+        if (call.getBoolean("reset", false)) {
+            DevServerStats.reset();
+        }
+        call.resolve(stats);
+    }
+
+    /**
+     * Starts (or re-roots) the local server on a background thread. Until it is ready, the
+     * WebView's requests to it are held by {@link ServerReadyWebViewClient} instead of failing.
+     */
+    private void startLocalServerAsync(String assetName, File webRootDir) {
+        LocalServer running = localServer;
+        if (running != null && running.isAlive() && webRootDir.equals(running.getRootDir())) {
+            // Activity recreate with the same bundle: the server and its index are still valid.
+            attachLiveReload(running);
+            StartupTimings.mark("serverReady");
+            return;
+        }
+
+        CountDownLatch ready = new CountDownLatch(1);
+        getBridge().setWebViewClient(new ServerReadyWebViewClient(getBridge(), LOCAL_PORT, ready));
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                startLocalServer(assetName, webRootDir);
+                StartupTimings.phase("serverStart", start);
+                StartupTimings.mark("serverReady");
+            } catch (IOException e) {
+                Logger.error("Failed to start local server", e);
+            } finally {
+                ready.countDown();
             }
+        }, "DevServer-start");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    @PluginMethod
+    public void getStartupTimings(PluginCall call) {
+        call.resolve(StartupTimings.toJSObject());
+    }
+
+    /**
+     * Points the bridge at the bundle without a loopback server: Capacitor's local server hosts
+     * the web root (so HTML still gets the bridge script injected) and {@link BundleWebViewClient}
+     * answers all other assets from the bundle index.
+     */
+    private void serveInProcess(File webRootDir) {
+        if (bundleWebViewClient == null) {
+            bundleWebViewClient = new BundleWebViewClient(getBridge(), config);
+            getBridge().setWebViewClient(bundleWebViewClient);
         }
+        bundleWebViewClient.setRootDir(webRootDir);
+        inProcessRoot = webRootDir;
+        if (getBridge().getLocalServer() != null) {
+            getBridge().getLocalServer().hostFiles(webRootDir.getAbsolutePath());
+            return;
+        }
+        // From load(): the bridge creates its local server after the plugins, and hosts its default
+        // base path there. Once that is done, switch the base path, which also reloads the page.
+        new android.os.Handler(android.os.Looper.getMainLooper()).post(() -> {
+            if (webRootDir.equals(inProcessRoot) && getBridge().getLocalServer() != null) {
+                getBridge().setServerBasePath(webRootDir.getAbsolutePath());
+            }
+        });
+    }
+
+    private boolean isLocalServerUrlActive() {
+        String localUrl = "http://localhost:" + LOCAL_PORT;
+        return localUrl.equals(DevServer.sessionUrl) || localUrl.equals(getPrefs().getString("server_url", null));
+    }
+
+    private File resolveWebRoot(String assetName) {
+        if (config.isInterceptMode() && assetManager.isArchiveBundle(assetName)) {
+            // Installed with extractionMode "archive" while serving through the local server.
+            Logger.warn("Bundle " + assetName + " is stored as an archive, which intercept mode cannot serve");
+            return null;
+        }
+        return assetManager.getWebRoot(assetName);
     }
 
     private SharedPreferences getPrefs() {
@@ -68,6 +208,8 @@ public class DevServerPlugin extends Plugin {
             }
             // If setting manual server, clear active asset persistence
             getPrefs().edit().remove("active_asset").apply();
+            activeAsset = null;
+            clearPendingBundle();
         }
 
         JSObject ret = new JSObject();
@@ -104,6 +246,7 @@ public class DevServerPlugin extends Plugin {
         
         // Also stop local server if running
         stopLocalServer();
+        clearPendingBundle();
 
         JSObject ret = new JSObject();
         ret.put("cleared", true);
@@ -135,27 +278,61 @@ public class DevServerPlugin extends Plugin {
             return;
         }
 
-        // Run in background
-        new Thread(() -> {
-            try {
-                assetManager.downloadAndExtract(url, null, overwrite, checksum);
+        // Repeated calls for the same URL join the transfer already in flight.
+        String assetName = assetManager.getAssetNameFromUrl(url);
+        TaskScheduler.Task<Void> task = scheduler.submit("download|" + url + "|" + assetName, url, assetName, TaskScheduler.PRIORITY_HIGH, (token) -> {
+            if (overwrite) {
+                requireInactive(assetName);
+            }
+            assetManager.downloadAndExtract(url, assetName, overwrite, checksum, token);
+            enforceStorageLimits(assetName);
+            return null;
+        });
+        task.future.whenComplete((result, error) -> {
+            if (error == null) {
                 call.resolve();
-            } catch (Exception e) {
-                call.reject("Download failed: " + e.getMessage());
+            } else {
+                rejectTask(call, "Download failed", error);
             }
-        }).start();
+        });
+    }
+
+    @PluginMethod
+    public void cancelDownload(PluginCall call) {
+        String url = call.getString("url");
+        String assetName = call.getString("assetName");
+
+        JSObject ret = new JSObject();
+        ret.put("cancelled", scheduler.cancel(url, assetName).size());
+        call.resolve(ret);
+    }
+
+    private static void rejectTask(PluginCall call, String message, Throwable error) {
+        if (error instanceof CancellationException) {
+            call.reject(message + ": cancelled", "CANCELLED");
+        } else {
+            call.reject(message + ": " + error.getMessage());
+        }
     }
 
     @PluginMethod
     public void getAssetList(PluginCall call) {
-        List<String> assets = assetManager.getAssetList();
+        List<BundleRegistry.Record> bundles = assetManager.getBundleList();
         
         JSObject ret = new JSObject();
         com.getcapacitor.JSArray array = new com.getcapacitor.JSArray();
-        for(String s : assets) {
-            array.put(s);
+        com.getcapacitor.JSArray details = new com.getcapacitor.JSArray();
+        try {
+            for (BundleRegistry.Record record : bundles) {
+                array.put(record.name);
+                details.put(JSObject.fromJSONObject(record.toJSON()));
+            }
+        } catch (org.json.JSONException e) {
+            call.reject("Failed to list assets: " + e.getMessage());
+            return;
         }
         ret.put("assets", array);
+        ret.put("bundles", details);
         call.resolve(ret);
     }
 
@@ -166,223 +343,383 @@ public class DevServerPlugin extends Plugin {
             call.reject("Asset Name is required");
             return;
         }
+        if (assetName.equals(getPrefs().getString("pending_asset", null))) {
+            clearPendingBundle();
+        }
+        LocalServer server = localServer;
+        if (server != null) {
+            server.unstage(assetName);
+        }
         assetManager.removeAsset(assetName);
         call.resolve();
     }
 
+    /**
+     * Keeps a bundle warm next to the active one: the local server indexes it, loads its
+     * documents, scripts and styles into memory and serves it on its own virtual host for
+     * previews. A later {@code applyAsset} with {@code hotSwap} then switches to it instantly,
+     * and the bundle it replaces stays staged for an equally fast switch back.
+     */
+    @PluginMethod
+    public void stageBundle(PluginCall call) {
+        String assetName = call.getString("assetName");
+        if (assetName == null) {
+            call.reject("Asset Name is required");
+            return;
+        }
+        if (config.isInterceptMode()) {
+            call.reject("Staging bundles requires serveMode \"server\"");
+            return;
+        }
+
+        TaskScheduler.Task<Void> task = scheduler.submit("stage|" + assetName, null, assetName, TaskScheduler.PRIORITY_NORMAL, (token) -> {
+            File webRootDir = resolveWebRoot(assetName);
+            if (webRootDir == null) {
+                throw new Exception("Asset not found");
+            }
+            startLocalServer(null, null);
+            localServer.stage(assetName, webRootDir, assetManager.getInstallGeneration(assetName));
+            return null;
+        });
+        task.future.whenComplete((result, error) -> {
+            if (error == null) {
+                JSObject ret = new JSObject();
+                ret.put("assetName", assetName);
+                String host = LocalServer.virtualHost(assetName);
+                if (host != null) {
+                    ret.put("url", "http://" + host + ":" + LOCAL_PORT);
+                }
+                call.resolve(ret);
+            } else {
+                rejectTask(call, "Staging failed", error);
+            }
+        });
+    }
+
     @PluginMethod
     public void checkForUpdate(PluginCall call) {
         performUpdateCheck(call, (data) -> {
+            String manifestUrl = data.getString("manifestUrl");
+            Boolean isUpdate = data.getBool("isUpdateAvailable");
+            if (manifestUrl != null && isUpdate != null && isUpdate) {
+                try {
+                    AssetManager.DeltaResult plan = assetManager.planDelta(manifestUrl, getActiveAsset());
+                    data.put("bytesSaved", plan.bytesSaved);
+                    data.put("downloadSize", plan.bytesDownloaded);
+                } catch (Exception e) {
+                    call.reject("Update check error: " + e.getMessage());
+                    return;
+                }
+            }
             call.resolve(data);
         });
     }
 
     @PluginMethod
     public void sync(PluginCall call) {
-        performUpdateCheck(call, (data) -> {
+        String url = call.getString("url");
+        boolean hotSwap = call.getBoolean("hotSwap", false);
+        performUpdateCheck(call, (zip, bundleId, token) -> installDirectZip(zip, bundleId, url, hotSwap, token), (data) -> {
+            if (data.has("updated")) {
+                // The update URL answered with the ZIP itself; it was installed from that response.
+                call.resolve(data);
+                return;
+            }
             Boolean isUpdate = data.getBool("isUpdateAvailable");
             boolean isUpdateAvailable = isUpdate != null && isUpdate;
             String downloadUrl = data.getString("downloadUrl");
+            String manifestUrl = data.getString("manifestUrl");
 
-            if (!isUpdateAvailable || downloadUrl == null) {
+            if (!isUpdateAvailable || (downloadUrl == null && manifestUrl == null)) {
                 JSObject ret = new JSObject();
                 ret.put("updated", false);
+                ret.put("fromCache", data.optBoolean("fromCache", false));
                 call.resolve(ret);
                 return;
             }
 
-            // Start Download
-            new Thread(() -> {
-                try {
-                    // Extract ID first so we can use it for the folder name
-                    JSObject latestBundle = data.getJSObject("latestBundle");
-                    String assetId = null;
-                    if (latestBundle != null && latestBundle.has("id")) {
-                        assetId = String.valueOf(latestBundle.get("id"));
-                    }
-
-                    assetManager.downloadAndExtract(downloadUrl, assetId, true, null);
-                    
-                    // Apply new asset
-                    if (assetId != null) {
-                        applyBundleInternal(assetId, true, call);
-                    } else {
-                        JSObject ret = new JSObject();
-                        ret.put("updated", true);
-                        ret.put("note", "downloaded but could not auto-apply id mapping");
-                        call.resolve(ret);
-                    }
-                } catch (Exception e) {
-                    call.reject("Sync failed at download: " + e.getMessage());
+            // Extract ID first so we can use it for the folder name
+            JSObject latestBundle = data.getJSObject("latestBundle");
+            String assetId = null;
+            if (latestBundle != null && latestBundle.has("id")) {
+                assetId = String.valueOf(latestBundle.get("id"));
+            }
+
+            // Download and apply as one task, so concurrent syncs to the same bundle share both.
+            String assetName = assetId;
+            String sourceUrl = manifestUrl != null ? manifestUrl : downloadUrl;
+            TaskScheduler.Task<JSObject> task = scheduler.submit("sync|" + sourceUrl + "|" + assetName, sourceUrl, assetName, TaskScheduler.PRIORITY_HIGH, (token) -> {
+                String activeAsset = getActiveAsset();
+                String target = AssetManager.updateTarget(assetName, activeAsset);
+                long bytesSaved = 0;
+                if (manifestUrl != null) {
+                    bytesSaved = assetManager.downloadDelta(manifestUrl, target, activeAsset, true, token).bytesSaved;
+                } else {
+                    assetManager.downloadAndExtract(downloadUrl, target, true, null, token);
+                }
+                token.throwIfCancelled();
+
+                // Apply new asset
+                JSObject ret = new JSObject();
+                ret.put("updated", true);
+                ret.put("bytesSaved", bytesSaved);
+                if (target != null) {
+                    ret.put("hotSwapped", activateBundle(target, true, hotSwap));
+                } else {
+                    ret.put("note", "downloaded but could not auto-apply id mapping");
+                }
+                enforceStorageLimits(target);
+                return ret;
+            });
+            task.future.whenComplete((ret, error) -> {
+                if (error == null) {
+                    call.resolve(ret);
+                } else {
+                    rejectTask(call, "Sync failed at download", error);
                 }
-            }).start();
+            });
         });
     }
 
+    private JSObject installDirectZip(InputStream zip, String bundleId, String sourceUrl, boolean hotSwap, CancellationToken token) throws Exception {
+        // Without an X-Bundle-Id header every response from the URL has the same id.
+        String target = AssetManager.updateTarget(bundleId, getActiveAsset());
+        assetManager.installFromStream(zip, target, null, sourceUrl, token);
+        token.throwIfCancelled();
+        JSObject ret = new JSObject();
+        ret.put("updated", true);
+        ret.put("bytesSaved", 0);
+        ret.put("hotSwapped", activateBundle(target, true, hotSwap));
+        enforceStorageLimits(target);
+        return ret;
+    }
+
+    /**
+     * Installs replace a bundle's directory, which would change the files under the index the
+     * active bundle is served from; an update has to arrive under a name of its own.
+     */
+    private void requireInactive(String assetName) throws Exception {
+        if (assetName != null && assetName.equals(getActiveAsset())) {
+            throw new Exception("Bundle " + assetName + " is active; install the update under another name");
+        }
+    }
+
     private interface UpdateCheckCallback {
-        void onResult(JSObject data);
+        void onResult(JSObject data) throws Exception;
     }
 
     private void performUpdateCheck(PluginCall call, UpdateCheckCallback callback) {
+        performUpdateCheck(call, null, callback);
+    }
+
+    /**
+     * Runs the update check; when {@code installer} is set and the server answers with a ZIP, the
+     * open response is handed to it and its result is reported instead of the update info.
+     */
+    private void performUpdateCheck(PluginCall call, UpdateChecker.ZipInstaller installer, UpdateCheckCallback callback) {
         String urlString = call.getString("url");
         String channel = call.getString("channel", "production");
+        boolean force = call.getBoolean("force", false);
 
         if (urlString == null) {
             call.reject("URL is required");
             return;
         }
 
-        new Thread(() -> {
+        // Identical checks in flight share one request; each caller gets its own copy of the result.
+        String key = "check|" + urlString + "|" + channel + (installer != null ? "|install" : "");
+        int priority = installer != null ? TaskScheduler.PRIORITY_HIGH : TaskScheduler.PRIORITY_NORMAL;
+        TaskScheduler.Task<JSObject> task = scheduler.submit(key, urlString, null, priority, (token) -> updateChecker.check(urlString, channel, getActiveAsset(), force, installer, token));
+        task.future.whenComplete((data, error) -> {
+            if (error != null) {
+                rejectTask(call, "Update check error", error);
+                return;
+            }
             try {
-                java.net.URL url = new java.net.URL(urlString);
-                java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                
-                // Metadata Headers
-                String deviceId = android.provider.Settings.Secure.getString(getContext().getContentResolver(), android.provider.Settings.Secure.ANDROID_ID);
-                conn.setRequestProperty("X-Device-Identifier", deviceId);
-                conn.setRequestProperty("X-Platform", "android");
-                conn.setRequestProperty("X-Bundle-Id", getPrefs().getString("active_asset", ""));
-                conn.setRequestProperty("X-Channel", channel);
-
-                int responseCode = conn.getResponseCode();
-                if (responseCode == 200) {
-                    java.io.BufferedReader in = new java.io.BufferedReader(new java.io.InputStreamReader(conn.getInputStream()));
-                    StringBuilder response = new StringBuilder();
-                    String inputLine;
-                    while ((inputLine = in.readLine()) != null) {
-                        response.append(inputLine);
-                    }
-                    in.close();
-
-                    String responseStr = response.toString();
-                    if (responseStr.startsWith("PK")) {
-                        // This is a direct ZIP file! Return synthetic data for sync to handle
-                        JSObject direct = new JSObject();
-                        direct.put("isUpdateAvailable", true);
-                        direct.put("downloadUrl", urlString);
-
-                        // Try to get real ID from header, fallback to URL hash (without prefix)
-                        String bundleId = conn.getHeaderField("X-Bundle-Id");
-                        if (bundleId == null) {
-                            bundleId = String.valueOf(Math.abs(urlString.hashCode()));
-                        }
-
-                        JSObject bundle = new JSObject();
-                        bundle.put("id", bundleId);
-                        direct.put("latestBundle", bundle);
-                        callback.onResult(direct);
-                        return;
-                    }
-
-                    org.json.JSONObject json;
-                    try {
-                        json = new org.json.JSONObject(responseStr);
-                    } catch (org.json.JSONException e) {
-                        throw e;
-                    }
-                    JSObject result = new JSObject();
-                    result.put("isUpdateAvailable", json.optBoolean("is_update_available", false));
-                    org.json.JSONObject latestBundle = json.optJSONObject("latest_bundle");
-                    if (latestBundle != null) {
-                        result.put("latestBundle", JSObject.fromJSONObject(latestBundle));
-                    }
-                    org.json.JSONObject currentBundle = json.optJSONObject("current_bundle");
-                    if (currentBundle != null) {
-                        result.put("currentBundle", JSObject.fromJSONObject(currentBundle));
-                    }
-                    result.put("downloadUrl", json.optString("download_url", null));
-
-                    callback.onResult(result);
-                } else {
-                    call.reject("Update check failed with HTTP " + responseCode);
-                }
+                callback.onResult(new JSObject(data.toString()));
             } catch (Exception e) {
                 call.reject("Update check error: " + e.getMessage());
             }
-        }).start();
+        });
     }
 
     @PluginMethod
     public void applyAsset(PluginCall call) {
         String assetName = call.getString("assetName");
         Boolean persist = call.getBoolean("persist", false);
+        Boolean hotSwap = call.getBoolean("hotSwap", false);
         
         if (assetName == null) {
             call.reject("Asset Name is required");
             return;
         }
 
-        applyBundleInternal(assetName, persist, call);
+        applyBundleInternal(assetName, persist, hotSwap, call);
     }
 
-    private void applyBundleInternal(String assetName, boolean persist, PluginCall call) {
-        String assetPath = assetManager.getAssetPath(assetName);
-        if (assetPath == null) {
-            if (call != null) call.reject("Asset not found");
+    private void applyBundleInternal(String assetName, boolean persist, boolean hotSwap, PluginCall call) {
+        try {
+            activateBundle(assetName, persist, hotSwap);
+        } catch (Exception e) {
+            if (call != null) call.reject(e.getMessage());
             return;
         }
 
+        if (call != null) {
+            call.resolve();
+        }
+    }
+
+    /**
+     * Makes {@code assetName} the served bundle and reloads. With {@code hotSwap}, when this bridge
+     * already serves bundles the same way, only the root and index are swapped and the WebView
+     * reloads; otherwise the activity is recreated so the bridge picks up the new configuration.
+     *
+     * @return whether the bundle was hot-swapped
+     */
+    private boolean activateBundle(String assetName, boolean persist, boolean hotSwap) throws Exception {
+        long start = System.nanoTime();
+        if (config.isInterceptMode() && assetManager.isArchiveBundle(assetName)) {
+            DevServerStats.recordStageFailure(DevServerStats.STAGE_APPLY);
+            throw new Exception("Bundle " + assetName + " is stored as an archive; only serveMode \"server\" can serve it");
+        }
         // Smart Web Root Detection
-        File rootDir = new java.io.File(assetPath);
-        File webRootDir = findWebRoot(rootDir);
-        
+        File webRootDir = resolveWebRoot(assetName);
         if (webRootDir == null) {
-             webRootDir = rootDir;
+            DevServerStats.recordStageFailure(DevServerStats.STAGE_APPLY);
+            throw new Exception("Asset not found");
         }
 
-        // Start Local Server
-        try {
-            startLocalServer(webRootDir);
-        } catch (IOException e) {
-            if (call != null) call.reject("Failed to start local server: " + e.getMessage());
-            return;
+        String localUrl = "http://localhost:" + LOCAL_PORT;
+        boolean hot;
+        if (config.isInterceptMode()) {
+            hot = hotSwap && bundleWebViewClient != null;
+        } else {
+            hot = hotSwap && localUrl.equals(getBridge().getServerUrl()) && localServer != null && localServer.isAlive();
         }
 
-        String localUrl = "http://localhost:" + LOCAL_PORT;
-        
-        if (persist) {
-            getPrefs().edit()
-                .putString("server_url", localUrl)
-                .putString("active_asset", assetName)
-                .commit();
+        if (config.isInterceptMode()) {
+            // Served in-process after the reload; no loopback URL, no cleartext traffic.
             DevServer.sessionUrl = null;
+            SharedPreferences.Editor editor = getPrefs().edit().remove("server_url");
+            if (persist) {
+                editor.putString("active_asset", assetName);
+            } else {
+                editor.remove("active_asset");
+            }
+            editor.commit();
+            stopLocalServer();
+            if (hot) {
+                serveInProcess(webRootDir);
+            }
         } else {
-            DevServer.sessionUrl = localUrl;
-            getPrefs().edit()
-                .remove("server_url")
-                .remove("active_asset")
-                .commit();
+            // Start Local Server
+            try {
+                startLocalServer(assetName, webRootDir);
+            } catch (IOException e) {
+                DevServerStats.recordStageFailure(DevServerStats.STAGE_APPLY);
+                throw new IOException("Failed to start local server: " + e.getMessage());
+            }
+
+            if (persist) {
+                getPrefs().edit()
+                    .putString("server_url", localUrl)
+                    .putString("active_asset", assetName)
+                    .commit();
+                DevServer.sessionUrl = null;
+            } else {
+                DevServer.sessionUrl = localUrl;
+                getPrefs().edit()
+                    .remove("server_url")
+                    .remove("active_asset")
+                    .commit();
+            }
         }
-        
+
+        activeAsset = assetName;
+        clearPendingBundle();
+        assetManager.markUsed(assetName);
+        // Up to the reload request; the page load itself belongs to the WebView.
+        DevServerStats.recordStage(DevServerStats.STAGE_APPLY, start);
+
         // Reload
-        getBridge().executeOnMainThread(() -> {
-            getActivity().recreate();
-        });
-        
-        if (call != null) call.resolve();
+        if (hot) {
+            getBridge().reload();
+        } else {
+            getBridge().executeOnMainThread(() -> {
+                getActivity().recreate();
+            });
+        }
+        return hot;
     }
-    
-    private java.io.File findWebRoot(java.io.File dir) {
-        if (new java.io.File(dir, "index.html").exists()) {
-            return dir;
+
+    @PluginMethod
+    public void prefetch(PluginCall call) {
+        String url = call.getString("url");
+        if (url == null) {
+            call.reject("URL is required");
+            return;
         }
-        
-        java.io.File[] files = dir.listFiles();
-        if (files != null) {
-            for (java.io.File f : files) {
-                if (f.isDirectory()) {
-                    java.io.File found = findWebRoot(f);
-                    if (found != null) return found;
+
+        android.os.PersistableBundle extras = new android.os.PersistableBundle();
+        extras.putString("url", url);
+        extras.putString("channel", call.getString("channel", "production"));
+        extras.putString("precompress", config.precompress);
+        extras.putString("extractionMode", config.extractionMode);
+        extras.putInt("storageQuotaMB", config.storageQuotaMB);
+        extras.putInt("maxBundleAgeDays", config.maxBundleAgeDays);
+        // The loopback URL to switch to on the next launch; in intercept mode there is none.
+        extras.putString("serverUrl", config.isInterceptMode() ? null : "http://localhost:" + LOCAL_PORT);
+
+        boolean scheduled = BundlePrefetchJob.schedule(
+            getContext(),
+            extras,
+            call.getBoolean("requiresUnmetered", true),
+            call.getBoolean("requiresCharging", false),
+            call.getBoolean("requiresIdle", false)
+        );
+        JSObject ret = new JSObject();
+        ret.put("scheduled", scheduled);
+        ret.put("pendingAsset", getPrefs().getString("pending_asset", null));
+        call.resolve(ret);
+    }
+
+    /**
+     * Evicts bundles beyond the configured storage limits. The active bundle, the pending one and
+     * {@code installed}, which the caller just downloaded, are always kept.
+     */
+    private void enforceStorageLimits(String installed) {
+        SharedPreferences prefs = getPrefs();
+        List<String> evicted = assetManager.enforceStorageLimits(java.util.Arrays.asList(
+            activeAsset,
+            prefs.getString("active_asset", null),
+            prefs.getString("pending_asset", null),
+            installed
+        ));
+        if (!evicted.isEmpty()) {
+            Logger.info("Evicted bundles over the storage limits: " + evicted);
+            LocalServer server = localServer;
+            if (server != null) {
+                for (String name : evicted) {
+                    server.unstage(name);
                 }
             }
         }
-        return null;
     }
 
+    /** A bundle prepared in the background must not override a choice made since. */
+    private void clearPendingBundle() {
+        getPrefs().edit().remove("pending_asset").remove("pending_server_url").apply();
+    }
+
+    private String getActiveAsset() {
+        return activeAsset != null ? activeAsset : getPrefs().getString("active_asset", null);
+    }
+    
     @PluginMethod
     public void restoreDefaultAsset(PluginCall call) {
         stopLocalServer();
+        clearPendingBundle();
         DevServer.sessionUrl = null;
         getPrefs().edit()
             .remove("server_url")
@@ -395,30 +732,70 @@ public class DevServerPlugin extends Plugin {
         call.resolve();
     }
     
-    private synchronized void startLocalServer(File webRootDir) throws IOException {
-        if (localServer != null && localServer.isAlive()) {
-             // Server is already running, just swap the root!
-             localServer.setRootDir(webRootDir);
-             return;
-        }
+    /**
+     * Serves {@code assetName} from {@code webRootDir}, starting the server if needed. A running
+     * server that has the bundle staged switches to it without rebuilding anything.
+     */
+    private void startLocalServer(String assetName, File webRootDir) throws IOException {
+        // The server is shared by all plugin instances; an old instance may still be starting it.
+        synchronized (DevServerPlugin.class) {
+            if (localServer != null && localServer.isAlive()) {
+                 // Server is already running, just swap the root!
+                 if (assetName != null) {
+                     localServer.setRoot(assetName, webRootDir, assetManager.getInstallGeneration(assetName));
+                 }
+                 attachLiveReload(localServer);
+                 return;
+            }
         
-        // If dead or null, cleanup just in case
-        if (localServer != null) {
-            localServer.stop();
-            localServer = null;
+            // If dead or null, cleanup just in case
+            if (localServer != null) {
+                localServer.stop();
+                localServer = null;
+            }
+
+            // Start fresh on strict port 8080 (as requested by user)
+            // We no longer increment ports.
+            try {
+                localServer = new LocalServer(LOCAL_PORT, null, config);
+                localServer.setAccessOrderFiles(assetManager::getAccessOrderFile);
+                if (assetName != null) {
+                    localServer.setRoot(assetName, webRootDir, assetManager.getInstallGeneration(assetName));
+                }
+                localServer.start();
+            } catch (IOException e) {
+                throw new IOException("Failed to start server on port " + LOCAL_PORT + ". " + e.getMessage());
+            }
+            attachLiveReload(localServer);
         }
+    }
 
-        // Start fresh on strict port 8080 (as requested by user)
-        // We no longer increment ports.
-        try {
-            localServer = new LocalServer(LOCAL_PORT, webRootDir);
-            localServer.start();
-        } catch (IOException e) {
-            throw new IOException("Failed to start server on port " + LOCAL_PORT + ". " + e.getMessage());
+    /**
+     * Routes development pushes to this plugin instance: the server outlives activity recreates,
+     * so each new instance takes over the listener.
+     */
+    private void attachLiveReload(LocalServer server) {
+        LiveReload liveReload = server.getLiveReload();
+        if (liveReload == null) {
+            return;
         }
+        liveReload.setListener((paths, version) -> {
+            JSObject event = new JSObject();
+            com.getcapacitor.JSArray changed = new com.getcapacitor.JSArray();
+            for (String path : paths) {
+                changed.put(path);
+            }
+            event.put("paths", changed);
+            event.put("version", version);
+            notifyListeners("filesChanged", event);
+            if (config.devAutoReload) {
+                getBridge().reload();
+            }
+        });
     }
 
     private void stopLocalServer() {
+        activeAsset = null;
         if (localServer != null) {
             localServer.stop();
             localServer = null;
@@ -0,0 +1,187 @@
+package dev.novals.devserver;
+
+import com.getcapacitor.JSObject;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-process counters for the local server and the update pipeline. Recording only updates
+ * preallocated atomics, indexed by route or stage constants, so the request path does not
+ * allocate; {@link #toJSObject} builds a snapshot when asked.
+ */
+public class DevServerStats {
+
+    public static final int ROUTE_DOCUMENT = 0;
+    public static final int ROUTE_SCRIPT = 1;
+    public static final int ROUTE_STYLE = 2;
+    public static final int ROUTE_IMAGE = 3;
+    public static final int ROUTE_FONT = 4;
+    public static final int ROUTE_OTHER = 5;
+    private static final String[] ROUTE_NAMES = { "document", "script", "style", "image", "font", "other" };
+
+    public static final int STAGE_CHECK = 0;
+    public static final int STAGE_DOWNLOAD = 1;
+    public static final int STAGE_VERIFY = 2;
+    public static final int STAGE_EXTRACT = 3;
+    public static final int STAGE_APPLY = 4;
+    private static final String[] STAGE_NAMES = { "check", "download", "verify", "extract", "apply" };
+
+    private static volatile long since = System.currentTimeMillis();
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder bytesServed = new LongAdder();
+    private static final LongAdder notModified = new LongAdder();
+    private static final LongAdder forbidden = new LongAdder();
+    private static final LongAdder notFound = new LongAdder();
+    private static final LongAdder serverErrors = new LongAdder();
+    private static final Histogram[] routeLatency = new Histogram[ROUTE_NAMES.length];
+    private static final Histogram[] stageDuration = new Histogram[STAGE_NAMES.length];
+    private static final LongAdder[] stageBytes = new LongAdder[STAGE_NAMES.length];
+    private static final LongAdder[] stageFailures = new LongAdder[STAGE_NAMES.length];
+
+    static {
+        for (int i = 0; i < routeLatency.length; i++) {
+            routeLatency[i] = new Histogram();
+        }
+        for (int i = 0; i < stageDuration.length; i++) {
+            stageDuration[i] = new Histogram();
+            stageBytes[i] = new LongAdder();
+            stageFailures[i] = new LongAdder();
+        }
+    }
+
+    /** The route bucket of a response with this MIME type. */
+    public static int routeOf(String mimeType) {
+        if (mimeType == null) {
+            return ROUTE_OTHER;
+        }
+        if (mimeType.startsWith("text/html")) {
+            return ROUTE_DOCUMENT;
+        }
+        if (mimeType.endsWith("javascript") || mimeType.startsWith("application/wasm")) {
+            return ROUTE_SCRIPT;
+        }
+        if (mimeType.startsWith("text/css")) {
+            return ROUTE_STYLE;
+        }
+        if (mimeType.startsWith("image/")) {
+            return ROUTE_IMAGE;
+        }
+        if (mimeType.contains("font")) {
+            return ROUTE_FONT;
+        }
+        return ROUTE_OTHER;
+    }
+
+    /** Records one answered request; {@code startNanos} is the {@link System#nanoTime()} when it arrived. */
+    public static void recordRequest(int route, int status, long startNanos) {
+        routeLatency[route].recordNanos(System.nanoTime() - startNanos);
+        requests.increment();
+        if (status == 304) {
+            notModified.increment();
+        } else if (status == 401 || status == 403) {
+            // Live-reload requests without the dev token; nothing else is refused.
+            forbidden.increment();
+        } else if (status == 404) {
+            notFound.increment();
+        } else if (status >= 500) {
+            serverErrors.increment();
+        }
+    }
+
+    public static void addBytesServed(long bytes) {
+        bytesServed.add(bytes);
+    }
+
+    /** Records a completed pipeline stage that started at {@code startNanos}. */
+    public static void recordStage(int stage, long startNanos) {
+        recordStage(stage, startNanos, 0);
+    }
+
+    /** Like {@link #recordStage(int, long)}, for a stage that transferred {@code bytes}. */
+    public static void recordStage(int stage, long startNanos, long bytes) {
+        stageDuration[stage].recordNanos(System.nanoTime() - startNanos);
+        stageBytes[stage].add(bytes);
+    }
+
+    public static void recordStageFailure(int stage) {
+        stageFailures[stage].increment();
+    }
+
+    public static void reset() {
+        since = System.currentTimeMillis();
+        requests.reset();
+        bytesServed.reset();
+        notModified.reset();
+        forbidden.reset();
+        notFound.reset();
+        serverErrors.reset();
+        for (Histogram histogram : routeLatency) {
+            histogram.reset();
+        }
+        for (int i = 0; i < stageDuration.length; i++) {
+            stageDuration[i].reset();
+            stageBytes[i].reset();
+            stageFailures[i].reset();
+        }
+    }
+
+    /**
+     * A snapshot of all counters. {@code server} is the running local server, for its live
+     * connection count and memory-cache counters; it may be {@code null}.
+     */
+    public static JSObject toJSObject(LocalServer server) {
+        JSObject routes = new JSObject();
+        for (int i = 0; i < routeLatency.length; i++) {
+            if (routeLatency[i].getCount() > 0) {
+                routes.put(ROUTE_NAMES[i], latencyJson(routeLatency[i]));
+            }
+        }
+
+        JSObject serverJson = new JSObject();
+        serverJson.put("requests", requests.sum());
+        serverJson.put("bytesServed", bytesServed.sum());
+        serverJson.put("notModified", notModified.sum());
+        serverJson.put("forbidden", forbidden.sum());
+        serverJson.put("notFound", notFound.sum());
+        serverJson.put("serverErrors", serverErrors.sum());
+        serverJson.put("routes", routes);
+        if (server != null) {
+            long hits = server.getCacheHits();
+            long misses = server.getCacheMisses();
+            serverJson.put("activeConnections", server.getActiveConnections());
+            serverJson.put("cacheHits", hits);
+            serverJson.put("cacheMisses", misses);
+            serverJson.put("cacheHitRatio", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+        }
+
+        JSObject pipeline = new JSObject();
+        for (int i = 0; i < stageDuration.length; i++) {
+            Histogram histogram = stageDuration[i];
+            JSObject stage = latencyJson(histogram);
+            stage.put("failures", stageFailures[i].sum());
+            long bytes = stageBytes[i].sum();
+            if (bytes > 0) {
+                stage.put("bytes", bytes);
+                // Bytes per second over the time spent in the stage.
+                stage.put("throughput", histogram.getSum() > 0 ? bytes * 1_000_000.0 / histogram.getSum() : 0.0);
+            }
+            pipeline.put(STAGE_NAMES[i], stage);
+        }
+
+        JSObject result = new JSObject();
+        result.put("since", since);
+        result.put("server", serverJson);
+        result.put("pipeline", pipeline);
+        return result;
+    }
+
+    /** Count and p50/p95/p99/max in milliseconds. */
+    private static JSObject latencyJson(Histogram histogram) {
+        JSObject json = new JSObject();
+        json.put("count", histogram.getCount());
+        json.put("p50", histogram.percentile(0.50) / 1000.0);
+        json.put("p95", histogram.percentile(0.95) / 1000.0);
+        json.put("p99", histogram.percentile(0.99) / 1000.0);
+        json.put("max", histogram.getMax() / 1000.0);
+        return json;
+    }
+}
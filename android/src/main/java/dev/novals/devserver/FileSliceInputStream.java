@@ -0,0 +1,65 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams {@code length} bytes of a file starting at {@code offset} using positional
+ * {@link FileChannel} reads straight into the caller's buffer, so a Range request never
+ * reads (or skips through) the bytes before its start.
+ *
+ * <p>This is bounded copying, not zero-copy: NanoHTTPD writes responses from an
+ * {@link InputStream} through its own buffer and never exposes the socket channel, so
+ * {@link FileChannel#transferTo} has nothing to transfer to.
+ */
+public class FileSliceInputStream extends InputStream {
+
+    private final FileInputStream input;
+    private final FileChannel channel;
+    private long position;
+    private long remaining;
+
+    public FileSliceInputStream(File file, long offset, long length) throws IOException {
+        this.input = new FileInputStream(file);
+        this.channel = input.getChannel();
+        this.position = offset;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, remaining)), position);
+        if (count <= 0) {
+            return -1;
+        }
+        position += count;
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, remaining));
+        position += skipped;
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
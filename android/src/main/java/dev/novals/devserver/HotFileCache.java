@@ -0,0 +1,127 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache holding the bytes of small, frequently requested files (index.html, JS, CSS)
+ * so repeated WebView loads are answered from memory instead of disk.
+ */
+public class HotFileCache {
+
+    private static class CachedFile {
+        final byte[] data;
+        final long lastModified;
+
+        CachedFile(byte[] data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxFileBytes;
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public HotFileCache(long maxBytes, long maxFileBytes) {
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.min(maxFileBytes, maxBytes);
+    }
+
+    /**
+     * Returns the entry's bytes, loading and caching them if the entry is small enough;
+     * {@code null} means the caller should stream it from disk. Archive members are cached
+     * inflated, so a hit also saves decompressing them again.
+     */
+    public byte[] get(BundleIndex.Entry entry) throws IOException {
+        long length = entry.length;
+        long lastModified = entry.lastModified;
+        if (length > maxFileBytes) {
+            return null;
+        }
+        String key = entry.file.getPath();
+        synchronized (this) {
+            CachedFile cached = entries.get(key);
+            if (cached != null && cached.data.length == length && cached.lastModified == lastModified) {
+                hits.increment();
+                return cached.data;
+            }
+        }
+        misses.increment();
+
+        byte[] data = readFully(entry, (int) length);
+        synchronized (this) {
+            CachedFile previous = entries.put(key, new CachedFile(data, lastModified));
+            if (previous != null) {
+                currentBytes -= previous.data.length;
+            }
+            currentBytes += data.length;
+            trim();
+        }
+        return data;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /** Lookups of cacheable files answered from memory. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** Lookups of cacheable files that had to be read from disk. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** Drops the cached copy of {@code file}, and of its precompressed variants. */
+    public synchronized void invalidate(File file) {
+        for (String key : new String[] { file.getPath(), file.getPath() + ".gz", file.getPath() + ".br" }) {
+            CachedFile removed = entries.remove(key);
+            if (removed != null) {
+                currentBytes -= removed.data.length;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, CachedFile>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            currentBytes -= it.next().getValue().data.length;
+            it.remove();
+        }
+    }
+
+    private static byte[] readFully(BundleIndex.Entry entry, int length) throws IOException {
+        byte[] data = new byte[length];
+        try (InputStream in = entry.open(0, length)) {
+            int read = 0;
+            while (read < length) {
+                int count = in.read(data, read, length - read);
+                if (count == -1) {
+                    throw new IOException("File changed while reading: " + entry.file);
+                }
+                read += count;
+            }
+        }
+        return data;
+    }
+}
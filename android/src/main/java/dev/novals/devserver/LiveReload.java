@@ -0,0 +1,534 @@
+package dev.novals.devserver;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Response;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Development mode of {@link LocalServer}: authenticated pushes into the active bundle, and a
+ * server-sent event stream that announces each change so the page can reload or swap modules
+ * without the activity being recreated.
+ *
+ * <pre>
+ * PUT    /__devserver/files/&lt;path&gt;   file body              writes one file
+ * DELETE /__devserver/files/&lt;path&gt;                          removes one file
+ * PATCH  /__devserver/files/         application/x-tar body  writes every regular file in it
+ * GET    /__devserver/events                                 text/event-stream of changes
+ * </pre>
+ *
+ * Pushes require {@code Authorization: Bearer <devToken>}. Each file is written to a temp file of
+ * its own next to the target and renamed over it, so a file hard-linked from the blob store is
+ * replaced rather than modified, and requests (or a concurrent push) never see half a file. A
+ * batch is renamed into place as a whole and announced as one change. Tar batches may use ustar
+ * prefixes, GNU long names and pax paths.
+ */
+public class LiveReload {
+
+    static final String PREFIX = "/__devserver/";
+    private static final String FILES_PATH = PREFIX + "files/";
+    private static final String EVENTS_PATH = PREFIX + "events";
+    // Private to the plugin, so a scan never indexes a temp file that is still being written.
+    private static final String TEMP_PREFIX = BundleIndex.PRIVATE_PREFIX + "tmp-";
+    private static final int MAX_LONG_NAME = 64 * 1024;
+    private static final long MAX_PING_MILLIS = 15_000;
+    // Streams beyond this end oldest first; each page reload opens a new one.
+    static final int MAX_STREAMS = 8;
+    private static final int TAR_BLOCK = 512;
+    private static final byte[] PING = ": ping\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = new byte[0];
+
+    /** Told about every change after the server has started serving it. */
+    public interface Listener {
+        void onFilesChanged(List<String> paths, long version);
+    }
+
+    private final LocalServer server;
+    private final byte[] token;
+    private final Set<EventStream> streams = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<>()));
+    private final AtomicLong version = new AtomicLong();
+    private final long pingMillis;
+    private volatile Listener listener;
+
+    LiveReload(LocalServer server, String token, int socketTimeoutMs) {
+        this.server = server;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        // Well within the socket timeout, so a client that went away is noticed at the next ping.
+        this.pingMillis = socketTimeoutMs > 0 ? Math.max(500, Math.min(MAX_PING_MILLIS, socketTimeoutMs / 2)) : MAX_PING_MILLIS;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Ends every open event stream; their clients reconnect to whichever server comes next. */
+    void close() {
+        for (EventStream stream : snapshot()) {
+            stream.end();
+        }
+    }
+
+    private List<EventStream> snapshot() {
+        synchronized (streams) {
+            return new ArrayList<>(streams);
+        }
+    }
+
+    Response serve(IHTTPSession session) {
+        String uri = session.getUri();
+        NanoHTTPD.Method method = session.getMethod();
+        if (uri.equals(EVENTS_PATH) && method == NanoHTTPD.Method.GET) {
+            return openEventStream();
+        }
+        if (!uri.startsWith(FILES_PATH)) {
+            return text(Response.Status.NOT_FOUND, "Not Found");
+        }
+        if (!isAuthorized(session)) {
+            Response response = text(Response.Status.UNAUTHORIZED, "Unauthorized");
+            response.addHeader("WWW-Authenticate", "Bearer");
+            return response;
+        }
+        File root = server.getRootDir();
+        if (root == null || new File(root, BundleIndex.ARCHIVE_FILE_NAME).isFile()) {
+            return text(Response.Status.CONFLICT, "The active bundle cannot be changed");
+        }
+        String path = uri.substring(FILES_PATH.length());
+        try {
+            List<String> changed;
+            if (method == NanoHTTPD.Method.PUT) {
+                changed = put(session, root, normalize(path));
+            } else if (method == NanoHTTPD.Method.DELETE) {
+                changed = delete(root, normalize(path));
+            } else if (method == NanoHTTPD.Method.PATCH) {
+                changed = patch(session, root, path);
+            } else {
+                return text(Response.Status.METHOD_NOT_ALLOWED, "Method Not Allowed");
+            }
+            if (changed == null) {
+                return text(Response.Status.NOT_FOUND, "Not Found");
+            }
+            long current = publish(changed);
+            JSONObject body = new JSONObject();
+            body.put("version", current);
+            body.put("paths", new JSONArray(changed));
+            return NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "application/json", body.toString());
+        } catch (InvalidUpload | JSONException e) {
+            return text(Response.Status.BAD_REQUEST, e.getMessage());
+        } catch (IOException e) {
+            return text(Response.Status.INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    private boolean isAuthorized(IHTTPSession session) {
+        String header = session.getHeaders().get("authorization");
+        if (header == null || !header.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            return false;
+        }
+        return MessageDigest.isEqual(token, header.substring(7).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<String> put(IHTTPSession session, File root, String path) throws IOException {
+        File target = new File(root, path);
+        File tmp = writeTemp(target, body(session), -1);
+        return replace(root, new File[] { tmp }, new File[] { target }, new String[] { path });
+    }
+
+    private List<String> delete(File root, String path) {
+        File target = new File(root, path);
+        if (!target.isFile()) {
+            return null;
+        }
+        target.delete();
+        List<String> changed = new ArrayList<>();
+        changed.add("/" + path);
+        changed.addAll(dropSidecars(target, path));
+        return changed;
+    }
+
+    /** Applies a tar batch under {@code dir}; only regular files are taken. */
+    private List<String> patch(IHTTPSession session, File root, String dir) throws IOException, JSONException {
+        String base = dir.isEmpty() ? "" : BundleManifest.normalizePath(dir.endsWith("/") ? dir : dir + "/");
+        InputStream in = body(session);
+        List<File> temps = new ArrayList<>();
+        List<File> targets = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        byte[] header = new byte[TAR_BLOCK];
+        String longName = null;
+        try {
+            while (readBlock(in, header)) {
+                if (isZeroBlock(header)) {
+                    break;
+                }
+                long size = tarNumber(header, 124, 12);
+                char type = (char) header[156];
+                long padded = (size + TAR_BLOCK - 1) / TAR_BLOCK * TAR_BLOCK;
+                if (type == 'L' || type == 'x') {
+                    // The name of the next entry, from a GNU long name or a pax "path" record.
+                    String data = readString(in, size);
+                    skipFully(in, padded - size);
+                    String name = type == 'L' ? trimNul(data) : paxPath(data);
+                    if (name != null) {
+                        longName = name;
+                    }
+                    continue;
+                }
+                String name = longName != null ? longName : tarName(header);
+                longName = null;
+                if (type != '0' && type != '\0') {
+                    // Directories, links and global pax headers carry nothing to write.
+                    skipFully(in, padded);
+                    continue;
+                }
+                String path = normalize(base + name);
+                File target = new File(root, path);
+                temps.add(writeTemp(target, in, size));
+                targets.add(target);
+                paths.add(path);
+                skipFully(in, padded - size);
+            }
+        } catch (IOException | JSONException e) {
+            for (File tmp : temps) {
+                tmp.delete();
+            }
+            throw e;
+        }
+        return replace(root, temps.toArray(new File[0]), targets.toArray(new File[0]), paths.toArray(new String[0]));
+    }
+
+    /** Renames every temp file over its target; precompressed copies of the old files go too. */
+    private List<String> replace(File root, File[] temps, File[] targets, String[] paths) throws IOException {
+        List<String> changed = new ArrayList<>();
+        for (int i = 0; i < temps.length; i++) {
+            if (!temps[i].renameTo(targets[i])) {
+                for (int j = i; j < temps.length; j++) {
+                    temps[j].delete();
+                }
+                throw new IOException("Failed to replace " + paths[i]);
+            }
+            changed.add("/" + paths[i]);
+            changed.addAll(dropSidecars(targets[i], paths[i]));
+        }
+        return changed;
+    }
+
+    private static List<String> dropSidecars(File target, String path) {
+        List<String> dropped = new ArrayList<>();
+        for (String suffix : new String[] { ".gz", ".br" }) {
+            if (new File(target.getPath() + suffix).delete()) {
+                dropped.add("/" + path + suffix);
+            }
+        }
+        return dropped;
+    }
+
+    /** Writes {@code length} bytes of {@code in} (all of it for {@code -1}) next to {@code target}. */
+    private static File writeTemp(File target, InputStream in, long length) throws IOException {
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory " + dir);
+        }
+        File tmp = File.createTempFile(TEMP_PREFIX, null, dir);
+        byte[] buffer = new byte[65536];
+        long remaining = length;
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            while (length < 0 || remaining > 0) {
+                int count = in.read(buffer, 0, length < 0 ? buffer.length : (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    if (length < 0) {
+                        break;
+                    }
+                    throw new InvalidUpload("Unexpected end of upload");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        return tmp;
+    }
+
+    private long publish(List<String> changed) {
+        server.publishChanges(changed);
+        long current = version.incrementAndGet();
+        try {
+            JSONObject event = new JSONObject();
+            event.put("version", current);
+            event.put("paths", new JSONArray(changed));
+            byte[] message = ("event: change\nid: " + current + "\ndata: " + event + "\n\n").getBytes(StandardCharsets.UTF_8);
+            for (EventStream stream : snapshot()) {
+                stream.send(message);
+            }
+        } catch (JSONException e) {
+            // Not reachable with string paths.
+        }
+        Listener target = listener;
+        if (target != null) {
+            target.onFilesChanged(changed, current);
+        }
+        return current;
+    }
+
+    /**
+     * Streams stay open indefinitely, so they give up their connection slot and the page's own
+     * requests never queue behind them. Pages that reloaded leave dead streams behind until the
+     * next ping; past {@link #MAX_STREAMS} the oldest are ended right away.
+     */
+    private Response openEventStream() {
+        EventStream stream = new EventStream();
+        synchronized (streams) {
+            streams.add(stream);
+            java.util.Iterator<EventStream> oldest = streams.iterator();
+            while (streams.size() > MAX_STREAMS) {
+                oldest.next().end();
+                oldest.remove();
+            }
+        }
+        server.releaseConnectionSlot();
+        // Reconnect quickly after a server restart.
+        stream.send("retry: 1000\n\n".getBytes(StandardCharsets.US_ASCII));
+        Response response = NanoHTTPD.newChunkedResponse(Response.Status.OK, "text/event-stream", stream);
+        response.addHeader("Cache-Control", "no-cache");
+        // The thread no longer holds a slot; it must not go on to serve further requests.
+        response.closeConnection(true);
+        return response;
+    }
+
+    /** The request body, bounded by its Content-Length so the connection stays usable. */
+    private static InputStream body(IHTTPSession session) throws IOException {
+        String length = session.getHeaders().get("content-length");
+        if (length == null) {
+            throw new InvalidUpload("Content-Length is required");
+        }
+        long remaining;
+        try {
+            remaining = Long.parseLong(length.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidUpload("Invalid Content-Length: " + length);
+        }
+        InputStream in = session.getInputStream();
+        return new InputStream() {
+            private long left = remaining;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (left <= 0) {
+                    return -1;
+                }
+                int read = in.read(buffer, offset, (int) Math.min(count, left));
+                if (read > 0) {
+                    left -= read;
+                }
+                return read;
+            }
+        };
+    }
+
+    private static String normalize(String path) throws JSONException {
+        String normalized = BundleManifest.normalizePath(path);
+        if (normalized.endsWith("/") || ("/" + normalized).contains("/" + BundleIndex.PRIVATE_PREFIX)) {
+            throw new JSONException("Invalid path: " + path);
+        }
+        return normalized;
+    }
+
+    /** A ustar name: the prefix field, if any, joined to the name field. */
+    private static String tarName(byte[] header) {
+        String name = tarString(header, 0, 100);
+        String prefix = tarString(header, 345, 155);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String readString(InputStream in, long size) throws IOException {
+        if (size > MAX_LONG_NAME) {
+            throw new InvalidUpload("Tar name record too large");
+        }
+        byte[] data = new byte[(int) size];
+        int read = 0;
+        while (read < data.length) {
+            int count = in.read(data, read, data.length - read);
+            if (count == -1) {
+                throw new InvalidUpload("Truncated tar archive");
+            }
+            read += count;
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    /** The "path" of a pax extended header, made of "<length> <key>=<value>\n" records. */
+    private static String paxPath(String records) throws IOException {
+        byte[] bytes = records.getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        String path = null;
+        while (pos < bytes.length && bytes[pos] != 0) {
+            int space = pos;
+            while (space < bytes.length && bytes[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(bytes, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new InvalidUpload("Invalid pax header");
+            }
+            if (length <= space - pos + 1 || pos + length > bytes.length) {
+                throw new InvalidUpload("Invalid pax header");
+            }
+            // The record is "key=value" between the space and its trailing newline.
+            String record = new String(bytes, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                path = record.substring(5);
+            }
+            pos += length;
+        }
+        return path;
+    }
+
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int count = in.read(block, read, block.length - read);
+            if (count == -1) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new InvalidUpload("Truncated tar archive");
+            }
+            read += count;
+        }
+        return true;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String tarString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long tarNumber(byte[] header, int offset, int length) throws IOException {
+        String digits = tarString(header, offset, length).trim();
+        try {
+            return digits.isEmpty() ? 0 : Long.parseLong(digits, 8);
+        } catch (NumberFormatException e) {
+            throw new InvalidUpload("Invalid tar header");
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        byte[] buffer = new byte[TAR_BLOCK];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read == -1) {
+                throw new InvalidUpload("Truncated tar archive");
+            }
+            count -= read;
+        }
+    }
+
+    /** A malformed request, answered with 400. */
+    private static class InvalidUpload extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        InvalidUpload(String message) {
+            super(message);
+        }
+    }
+
+    /** An error; the connection is closed since the request body may not have been read. */
+    private static Response text(Response.IStatus status, String message) {
+        Response response = NanoHTTPD.newFixedLengthResponse(status, NanoHTTPD.MIME_PLAINTEXT, message);
+        response.closeConnection(true);
+        return response;
+    }
+
+    /**
+     * The body of one event-stream response. A read blocks until the next event; when none comes
+     * for a while, a comment line is sent so a closed connection is noticed and released.
+     */
+    private final class EventStream extends InputStream {
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private byte[] current;
+        private int offset;
+
+        void send(byte[] message) {
+            queue.offer(message);
+        }
+
+        void end() {
+            queue.offer(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int length) throws IOException {
+            if (current == null || offset == current.length) {
+                try {
+                    byte[] next = queue.poll(pingMillis, TimeUnit.MILLISECONDS);
+                    current = next != null ? next : PING;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                offset = 0;
+                if (current == END) {
+                    return -1;
+                }
+            }
+            int count = Math.min(length, current.length - offset);
+            System.arraycopy(current, offset, buffer, off, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            streams.remove(this);
+        }
+    }
+}
@@ -1,63 +1,756 @@
 package dev.novals.devserver;
 
 import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import android.webkit.MimeTypeMap;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
 
+/**
+ * Loopback HTTP server for bundles. Several bundles can be hosted at once: the active one answers
+ * on {@code localhost}, and every staged bundle also answers on its own virtual host,
+ * {@code <name>.localhost}, which WebViews resolve to the loopback address. Staging builds a
+ * bundle's index and warms the shared hot-file cache in advance, so activating it later is a
+ * single reference swap.
+ *
+ * <p>With an access-order location set, the first load of each named bundle is recorded (see
+ * {@link AccessOrder}). Later activations read the recorded files ahead of the WebView on a few
+ * background threads, and documents can announce the first scripts, styles and fonts in a
+ * {@code Link: rel=preload} header.
+ */
 public class LocalServer extends NanoHTTPD {
-    private File rootDir;
+    private static final int MAX_RANGES = 16;
+    private static final int MAX_PRELOADS = 8;
+    private static final int READAHEAD_THREADS = 4;
+    private static final String VIRTUAL_HOST_SUFFIX = ".localhost";
+    private static final java.util.regex.Pattern DNS_LABEL = java.util.regex.Pattern.compile("[a-z0-9]([a-z0-9-]*[a-z0-9])?");
+    private static final String ENCODED_PREFIX = "x-";
+    private static final int MAX_LABEL_LENGTH = 63;
+    private static final int MAX_HOST_LENGTH = 253;
+
+    /** A bundle the server answers for: its index and, for named bundles, its access order. */
+    private static final class Root {
+        final String name;
+        final BundleIndex index;
+        final AccessOrder accessOrder;
+        // The install this index was built from; see activate.
+        final long generation;
+        // "" once computed with nothing to announce.
+        volatile String preloadHeader;
+
+        Root(String name, BundleIndex index, AccessOrder accessOrder, long generation) {
+            this.name = name;
+            this.index = index;
+            this.accessOrder = accessOrder;
+            this.generation = generation;
+        }
+    }
+
+    private volatile Root active;
+    // Staged bundles by their virtual host labels (see key); includes the active bundle once it has a name.
+    private final java.util.concurrent.ConcurrentHashMap<String, Root> staged = new java.util.concurrent.ConcurrentHashMap<>();
+    private final HotFileCache cache;
+    private final Precompressor precompressor;
+    private final BoundedAsyncRunner runner;
+    private final int socketTimeoutMs;
+    private final MimeTypes mimeTypes;
+    private final boolean readahead;
+    private final boolean preloadHints;
+    private final java.util.concurrent.ScheduledThreadPoolExecutor background;
+    private volatile java.util.function.Function<String, File> accessOrderFiles;
+    private final LiveReload liveReload;
 
     public LocalServer(int port, File rootDir) {
+        this(port, rootDir, new DevServerConfig());
+    }
+
+    public LocalServer(int port, File rootDir, DevServerConfig config) {
+        this(port, rootDir, config, MimeTypes.ANDROID);
+    }
+
+    public LocalServer(int port, File rootDir, DevServerConfig config, MimeTypes mimeTypes) {
         super(port);
-        this.rootDir = rootDir;
+        this.mimeTypes = mimeTypes;
+        this.active = new Root(null, BundleIndex.build(rootDir, mimeTypes), null, 0);
+        this.cache = new HotFileCache(config.hotCacheSize, config.hotCacheMaxFileSize);
+        this.precompressor = Precompressor.MODE_LAZY.equals(config.precompress) ? new Precompressor() : null;
+        this.runner = new BoundedAsyncRunner(config.maxConnections, config.virtualThreads);
+        this.socketTimeoutMs = config.socketTimeoutMs;
+        this.readahead = config.readahead;
+        this.preloadHints = config.preloadHints;
+        this.liveReload = config.devToken != null && !config.devToken.isEmpty() ? new LiveReload(this, config.devToken, config.socketTimeoutMs) : null;
+        this.background = new java.util.concurrent.ScheduledThreadPoolExecutor(READAHEAD_THREADS, (runnable) -> {
+            Thread thread = new Thread(runnable, "DevServer-readahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+        setAsyncRunner(runner);
+    }
+
+    @Override
+    public void start() throws IOException {
+        // The read timeout also bounds how long an idle keep-alive connection holds a worker.
+        start(socketTimeoutMs, true);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        runner.shutdown();
+        background.shutdownNow();
+        if (precompressor != null) {
+            precompressor.close();
+        }
+        if (liveReload != null) {
+            liveReload.close();
+        }
+        // Keep what a load cut short has recorded so far.
+        AccessOrder accessOrder = active.accessOrder;
+        if (accessOrder != null) {
+            accessOrder.finishRecording();
+        }
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(java.net.Socket socket, InputStream inputStream) {
+        try {
+            // Headers and body go out in separate writes. With Nagle's algorithm the body then waits
+            // for the client's delayed ACK, about 40 ms on every keep-alive response.
+            socket.setTcpNoDelay(true);
+        } catch (java.net.SocketException e) {
+            // Served anyway, just slower.
+        }
+        return super.createClientHandler(socket, inputStream);
+    }
+
+    public int getActiveConnections() {
+        return runner.getActiveConnections();
+    }
+
+    /** Lets the calling request's connection stay open without holding a connection slot. */
+    void releaseConnectionSlot() {
+        runner.releaseSlot();
+    }
+
+    public long getCacheHits() {
+        return cache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return cache.getMisses();
+    }
+
+    public File getRootDir() {
+        return active.index.getRoot();
+    }
+
+    /** Development mode, when a {@code devToken} is configured; otherwise {@code null}. */
+    public LiveReload getLiveReload() {
+        return liveReload;
+    }
+
+    /**
+     * Re-indexes {@code paths} of the active bundle after they changed on disk, publishing a new
+     * index the same way a root switch does. Cached copies of the old files are dropped.
+     */
+    synchronized void publishChanges(java.util.Collection<String> paths) {
+        Root current = active;
+        Root next = new Root(current.name, current.index.update(paths, mimeTypes), current.accessOrder, current.generation);
+        if (next.name != null) {
+            staged.put(key(next.name), next);
+        }
+        active = next;
+        for (String path : paths) {
+            cache.invalidate(new File(current.index.getRoot(), path.substring(1)));
+        }
+    }
+
+    /**
+     * Where the access order of each named bundle is kept; {@code null}, the default, turns
+     * recording and readahead off.
+     */
+    public void setAccessOrderFiles(java.util.function.Function<String, File> accessOrderFiles) {
+        this.accessOrderFiles = accessOrderFiles;
     }
 
     public void setRootDir(File rootDir) {
-        this.rootDir = rootDir;
+        // Build the whole index before publishing it, so requests see either the old root or the new one.
+        BundleIndex next = BundleIndex.build(rootDir, mimeTypes);
+        active = new Root(null, next, null, 0);
+        cache.clear();
+    }
+
+    /**
+     * Makes {@code rootDir} the active bundle under {@code name}, staging it first unless it is
+     * staged from the same {@code generation} already. Unlike {@link #setRootDir}, the cache is
+     * kept: its entries are keyed by path, so other bundles' files stay valid.
+     */
+    public void setRoot(String name, File rootDir, long generation) {
+        if (activate(name, generation)) {
+            return;
+        }
+        Root next = newRoot(name, rootDir, generation);
+        staged.put(key(name), next);
+        makeActive(next);
+    }
+
+    /** The name of the active bundle, or {@code null} if it was set with {@link #setRootDir}. */
+    public String getActiveName() {
+        return active.name;
+    }
+
+    /**
+     * Indexes a bundle and keeps it ready next to the active one, served on its virtual host. Up to
+     * half of the hot-file cache is then filled in the background with the files its recorded load
+     * requested, or with its documents, scripts and styles if none was recorded, so the first load
+     * after {@link #activate} is answered from memory. Returns once the index is published;
+     * restaging a name replaces its index.
+     */
+    public void stage(String name, File rootDir, long generation) {
+        Root next = newRoot(name, rootDir, generation);
+        staged.put(key(name), next);
+        long budget = cache.getMaxBytes() / 2;
+        try {
+            if (next.accessOrder != null && next.accessOrder.isLearned()) {
+                readAhead(next, budget);
+            } else {
+                background.execute(() -> warm(next.index, budget));
+            }
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // Stopped meanwhile.
+        }
+    }
+
+    /**
+     * Makes a staged bundle the active one; the outgoing bundle stays staged, so switching back is
+     * just as fast. Returns {@code false} if {@code name} is not staged or was staged from another
+     * install than {@code generation}, in which case nothing changes. The generation is whatever
+     * identifies an install to the caller, such as its install time; the directory's mtime would
+     * not do, as sidecars and live-reload pushes move it too.
+     */
+    public boolean activate(String name, long generation) {
+        Root next = staged.get(key(name));
+        if (next == null || next.generation != generation) {
+            return false;
+        }
+        makeActive(next);
+        return true;
+    }
+
+    /** Forgets a staged bundle; the active bundle stays served. */
+    public void unstage(String name) {
+        String activeName = active.name;
+        if (name != null && !key(name).equals(activeName != null ? key(activeName) : null)) {
+            staged.remove(key(name));
+        }
+    }
+
+    public java.util.Set<String> getStagedNames() {
+        java.util.Set<String> names = new java.util.HashSet<>();
+        for (Root root : staged.values()) {
+            names.add(root.name);
+        }
+        return names;
+    }
+
+    /**
+     * The host a staged bundle answers on, e.g. {@code build-v3.localhost}; {@code null} if its
+     * name is too long for a host name, in which case it can only be activated.
+     */
+    public static String virtualHost(String name) {
+        String host = key(name) + VIRTUAL_HOST_SUFFIX;
+        return host.length() <= MAX_HOST_LENGTH ? host : null;
+    }
+
+    /**
+     * A bundle's key in {@link #staged}, and the labels of its virtual host: the name itself if it
+     * is a lower-case DNS label, otherwise its UTF-8 bytes in hex behind {@code x-}, split into
+     * labels of at most 63 characters. Names with capitals, {@code _}, {@code .} or spaces are
+     * encoded, so no two names share a host.
+     */
+    private static String key(String name) {
+        if (name.length() <= MAX_LABEL_LENGTH && DNS_LABEL.matcher(name).matches() && !name.startsWith(ENCODED_PREFIX)) {
+            return name;
+        }
+        StringBuilder encoded = new StringBuilder(ENCODED_PREFIX);
+        for (byte b : name.getBytes(java.nio.charset.StandardCharsets.UTF_8)) {
+            if (encoded.length() % (MAX_LABEL_LENGTH + 1) == MAX_LABEL_LENGTH) {
+                encoded.append('.');
+            }
+            encoded.append(Character.forDigit((b >> 4) & 0xf, 16));
+            if (encoded.length() % (MAX_LABEL_LENGTH + 1) == MAX_LABEL_LENGTH) {
+                encoded.append('.');
+            }
+            encoded.append(Character.forDigit(b & 0xf, 16));
+        }
+        return encoded.toString();
+    }
+
+    private Root newRoot(String name, File rootDir, long generation) {
+        java.util.function.Function<String, File> files = accessOrderFiles;
+        AccessOrder accessOrder = readahead && files != null ? AccessOrder.load(files.apply(name)) : null;
+        return new Root(name, BundleIndex.build(rootDir, mimeTypes), accessOrder, generation);
+    }
+
+    /**
+     * Publishes {@code next}, then either replays its recorded load in the background or, if it has
+     * none yet, records this one.
+     */
+    private void makeActive(Root next) {
+        active = next;
+        AccessOrder accessOrder = next.accessOrder;
+        if (accessOrder == null) {
+            return;
+        }
+        try {
+            if (accessOrder.isLearned()) {
+                readAhead(next, cache.getMaxBytes());
+            } else if (accessOrder.startRecording()) {
+                background.schedule(accessOrder::finishRecording, AccessOrder.RECORD_WINDOW_MILLIS, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
+        } catch (java.util.concurrent.RejectedExecutionException e) {
+            // Stopped meanwhile.
+        }
+    }
+
+    /**
+     * Reads the recorded files in order on the background threads: small ones into the hot-file
+     * cache while {@code budget} lasts, the rest through into the page cache.
+     */
+    private void readAhead(Root root, long budget) {
+        java.util.concurrent.atomic.AtomicLong cached = new java.util.concurrent.atomic.AtomicLong();
+        for (String path : root.accessOrder.getPaths()) {
+            BundleIndex.Entry source = root.index.get(path);
+            if (source == null) {
+                continue;
+            }
+            // WebViews accept gzip but not brotli over plain HTTP, so read what they will be sent.
+            BundleIndex.Entry entry = source.gzip != null ? source.gzip : source;
+            background.execute(() -> readAhead(entry, cached, budget));
+        }
+    }
+
+    private void readAhead(BundleIndex.Entry entry, java.util.concurrent.atomic.AtomicLong cached, long budget) {
+        try {
+            if (entry.length <= cache.getMaxFileBytes() && cached.addAndGet(entry.length) <= budget) {
+                cache.get(entry);
+                return;
+            }
+            try (InputStream in = entry.open(0, entry.length)) {
+                byte[] buffer = new byte[65536];
+                while (in.read(buffer) != -1) {
+                    // Only the page cache is wanted.
+                }
+            }
+        } catch (IOException e) {
+            // A missing file will 404 when requested; readahead is only a head start.
+        }
+    }
+
+    private void warm(BundleIndex next, long budget) {
+        long warmed = 0;
+        for (BundleIndex.Entry source : next.entries()) {
+            int route = DevServerStats.routeOf(source.mimeType);
+            if (route != DevServerStats.ROUTE_DOCUMENT && route != DevServerStats.ROUTE_SCRIPT && route != DevServerStats.ROUTE_STYLE) {
+                continue;
+            }
+            // WebViews accept gzip but not brotli over plain HTTP, so warm what they will be sent.
+            BundleIndex.Entry entry = source.gzip != null ? source.gzip : source;
+            if (warmed + entry.length > budget) {
+                continue;
+            }
+            try {
+                if (cache.get(entry) != null) {
+                    warmed += entry.length;
+                }
+            } catch (IOException e) {
+                // A missing file will 404 when requested; warming is only a head start.
+            }
+        }
+    }
+
+    /**
+     * The {@code Link} header for a bundle's documents: the first scripts, styles and fonts of its
+     * recorded load. Scripts are announced as module preloads when the entry document loads
+     * modules, so the preloaded response matches the request the document makes.
+     */
+    private String preloadHeader(Root root) {
+        String header = root.preloadHeader;
+        if (header != null || root.accessOrder == null || !root.accessOrder.isLearned()) {
+            return header;
+        }
+        boolean modules = loadsModules(root.index.get("/"));
+        StringBuilder links = new StringBuilder();
+        int count = 0;
+        for (String path : root.accessOrder.getPaths()) {
+            BundleIndex.Entry entry = root.index.get(path);
+            if (entry == null || count == MAX_PRELOADS) {
+                continue;
+            }
+            String link;
+            switch (DevServerStats.routeOf(entry.mimeType)) {
+                case DevServerStats.ROUTE_SCRIPT:
+                    link = modules ? "rel=modulepreload" : "rel=preload; as=script";
+                    break;
+                case DevServerStats.ROUTE_STYLE:
+                    link = "rel=preload; as=style";
+                    break;
+                case DevServerStats.ROUTE_FONT:
+                    // Fonts are always fetched in CORS mode.
+                    link = "rel=preload; as=font; crossorigin";
+                    break;
+                default:
+                    continue;
+            }
+            links.append(links.length() > 0 ? ", " : "").append('<').append(path).append(">; ").append(link);
+            count++;
+        }
+        header = links.toString();
+        root.preloadHeader = header;
+        return header;
+    }
+
+    private boolean loadsModules(BundleIndex.Entry document) {
+        if (document == null) {
+            return false;
+        }
+        try {
+            byte[] head = cache.get(document);
+            String html;
+            if (head != null) {
+                html = new String(head, StandardCharsets.UTF_8);
+            } else {
+                try (InputStream in = document.open(0, Math.min(document.length, 65536))) {
+                    html = new String(readAll(in), StandardCharsets.UTF_8);
+                }
+            }
+            return html.replace(" ", "").toLowerCase(java.util.Locale.US).matches("(?s).*type=[\"']?module.*");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * The bundle a request is for: a staged bundle when addressed by its virtual host, the active
+     * bundle otherwise. {@code null} for a virtual host that names no staged bundle.
+     */
+    private Root route(IHTTPSession session) {
+        String host = session.getHeaders().get("host");
+        if (host == null) {
+            return active;
+        }
+        int colon = host.lastIndexOf(':');
+        String hostName = (colon >= 0 ? host.substring(0, colon) : host).toLowerCase(java.util.Locale.US);
+        if (!hostName.endsWith(VIRTUAL_HOST_SUFFIX)) {
+            return active;
+        }
+        return staged.get(hostName.substring(0, hostName.length() - VIRTUAL_HOST_SUFFIX.length()));
     }
 
     @Override
     public Response serve(IHTTPSession session) {
+        long start = System.nanoTime();
         String uri = session.getUri();
-        if (uri.endsWith("/")) {
-            uri += "index.html";
+        if (liveReload != null && uri.startsWith(LiveReload.PREFIX)) {
+            Response response = liveReload.serve(session);
+            DevServerStats.recordRequest(DevServerStats.ROUTE_OTHER, response.getStatus().getRequestStatus(), start);
+            return response;
+        }
+        Root target = route(session);
+        BundleIndex.Entry source = target != null ? target.index.get(uri) : null;
+        Response response = serveEntry(session, source);
+        int route = source != null ? DevServerStats.routeOf(source.mimeType) : DevServerStats.ROUTE_OTHER;
+        if (source != null && target.accessOrder != null) {
+            target.accessOrder.record(uri);
+            if (preloadHints && route == DevServerStats.ROUTE_DOCUMENT && response.getStatus() == Response.Status.OK) {
+                String links = preloadHeader(target);
+                if (links != null && !links.isEmpty()) {
+                    response.addHeader("Link", links);
+                }
+            }
         }
+        DevServerStats.recordRequest(route, response.getStatus().getRequestStatus(), start);
+        return response;
+    }
 
-        File file = new File(rootDir, uri);
-        
-        // Security check: ensure file is within rootDir to prevent directory traversal
-        try {
-            if (!file.getCanonicalPath().startsWith(rootDir.getCanonicalPath())) {
-                return newFixedLengthResponse(Response.Status.FORBIDDEN, NanoHTTPD.MIME_PLAINTEXT, "Forbidden");
+    private Response serveEntry(IHTTPSession session, BundleIndex.Entry source) {
+        if (source == null) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
+        }
+
+        BundleIndex.Entry entry = source;
+        String encoding = null;
+        if (source.compressible) {
+            String acceptEncoding = session.getHeaders().get("accept-encoding");
+            BundleIndex.Entry brotli = source.brotli;
+            BundleIndex.Entry gzip = source.gzip;
+            if (brotli != null && acceptsEncoding(acceptEncoding, "br")) {
+                entry = brotli;
+                encoding = "br";
+            } else if (gzip != null && acceptsEncoding(acceptEncoding, "gzip")) {
+                entry = gzip;
+                encoding = "gzip";
+            } else if (precompressor != null && gzip == null && source.content == null) {
+                precompressor.compressLater(source);
             }
+        }
+
+        if (isNotModified(session, entry)) {
+            Response notModified = newFixedLengthResponse(Response.Status.NOT_MODIFIED, entry.mimeType, "");
+            addValidators(notModified, entry);
+            addEncoding(notModified, source.compressible, encoding);
+            return notModified;
+        }
+
+        try {
+            byte[] cached = cache.get(entry);
+            Response response = respond(session, entry, cached);
+            addValidators(response, entry);
+            addEncoding(response, source.compressible, encoding);
+            return response;
+        } catch (java.io.FileNotFoundException e) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
         } catch (IOException e) {
-             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "Internal Error");
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "Internal Error");
+        }
+    }
+
+    /**
+     * Builds a fixed-length 200, a 206 for one or more satisfiable byte ranges, or a 416.
+     */
+    private Response respond(IHTTPSession session, BundleIndex.Entry entry, byte[] cached) throws IOException {
+        long length = entry.length;
+        String rangeHeader = session.getHeaders().get("range");
+        String ifRange = session.getHeaders().get("if-range");
+        if (rangeHeader == null || !rangeApplies(ifRange, entry)) {
+            Response response = newFixedLengthResponse(Response.Status.OK, entry.mimeType, open(entry, cached, 0, length), length);
+            response.addHeader("Accept-Ranges", "bytes");
+            DevServerStats.addBytesServed(length);
+            return response;
+        }
+
+        long[][] ranges = parseRanges(rangeHeader, length);
+        if (ranges == null) {
+            Response response = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, NanoHTTPD.MIME_PLAINTEXT, "");
+            response.addHeader("Content-Range", "bytes */" + length);
+            return response;
+        }
+
+        if (ranges.length == 1) {
+            long start = ranges[0][0];
+            long count = ranges[0][1] - start + 1;
+            Response response = newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, entry.mimeType, open(entry, cached, start, count), count);
+            response.addHeader("Accept-Ranges", "bytes");
+            response.addHeader("Content-Range", "bytes " + start + "-" + ranges[0][1] + "/" + length);
+            DevServerStats.addBytesServed(count);
+            return response;
+        }
+
+        // multipart/byteranges: part headers and file slices are concatenated lazily.
+        String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(entry.lastModified);
+        java.util.Vector<InputStream> parts = new java.util.Vector<>();
+        long total = 0;
+        for (long[] range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\nContent-Type: " + entry.mimeType + "\r\nContent-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            long count = range[1] - range[0] + 1;
+            parts.add(new ByteArrayInputStream(header));
+            parts.add(new LazySlice(entry, cached, range[0], count));
+            total += header.length + count;
         }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        parts.add(new ByteArrayInputStream(trailer));
+        total += trailer.length;
 
-        if (file.exists() && file.isFile()) {
-            String mimeType = getMimeType(file.getName());
+        Response response = newFixedLengthResponse(Response.Status.PARTIAL_CONTENT, "multipart/byteranges; boundary=" + boundary, new SequenceInputStream(parts.elements()), total);
+        response.addHeader("Accept-Ranges", "bytes");
+        DevServerStats.addBytesServed(total);
+        return response;
+    }
+
+    static InputStream open(BundleIndex.Entry entry, byte[] cached, long start, long count) throws IOException {
+        if (cached != null) {
+            return new ByteArrayInputStream(cached, (int) start, (int) count);
+        }
+        return entry.open(start, count);
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows {@code coding}: listed by name, or covered by "*",
+     * with a non-zero q-value. A malformed q-value counts as not acceptable.
+     */
+    static boolean acceptsEncoding(String header, String coding) {
+        if (header == null) {
+            return false;
+        }
+        double named = -1;
+        double wildcard = -1;
+        for (String item : header.split(",")) {
+            String[] parts = item.split(";");
+            String name = parts[0].trim().toLowerCase(java.util.Locale.US);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.length() > 1 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equals(coding)) {
+                named = q;
+            } else if (name.equals("*")) {
+                wildcard = q;
+            }
+        }
+        return (named >= 0 ? named : wildcard) > 0;
+    }
+
+    /**
+     * Parses "bytes=a-b,c-,-n" into inclusive [start, end] pairs; {@code null} if none is satisfiable.
+     */
+    static long[][] parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=") || length == 0) {
+            return null;
+        }
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        java.util.List<long[]> ranges = new java.util.ArrayList<>();
+        for (String spec : specs) {
+            String range = spec.trim();
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
             try {
-                FileInputStream fis = new FileInputStream(file);
-                return newChunkedResponse(Response.Status.OK, mimeType, fis);
-            } catch (IOException e) {
-                return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT, "Internal Error");
+                long start;
+                long end;
+                if (dash == 0) {
+                    long suffix = Long.parseLong(range.substring(1));
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(range.substring(0, dash));
+                    end = dash == range.length() - 1 ? length - 1 : Math.min(Long.parseLong(range.substring(dash + 1)), length - 1);
+                }
+                if (start <= end && start < length) {
+                    ranges.add(new long[] { start, end });
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges.isEmpty() ? null : ranges.toArray(new long[0][]);
+    }
+
+    /** Opens its file slice only when the multipart body reaches it. */
+    private static class LazySlice extends InputStream {
+        private final BundleIndex.Entry entry;
+        private final byte[] cached;
+        private final long start;
+        private final long count;
+        private InputStream delegate;
+
+        LazySlice(BundleIndex.Entry entry, byte[] cached, long start, long count) {
+            this.entry = entry;
+            this.cached = cached;
+            this.start = start;
+            this.count = count;
+        }
+
+        private InputStream delegate() throws IOException {
+            if (delegate == null) {
+                delegate = open(entry, cached, start, count);
             }
+            return delegate;
         }
 
-        return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
+        @Override
+        public int read() throws IOException {
+            return delegate().read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return delegate().read(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate != null) {
+                delegate.close();
+            }
+        }
+    }
+
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        // Compressed bodies come only from .gz/.br sidecars. Gzipping on the fly would send the body
+        // chunked without a Content-Length, under the ETag and Accept-Ranges of the identity bytes.
+        return false;
+    }
+
+    private static void addEncoding(Response response, boolean compressible, String encoding) {
+        if (encoding != null) {
+            response.addHeader("Content-Encoding", encoding);
+        }
+        if (compressible) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
     }
 
-    private String getMimeType(String fileName) {
-        String extension = MimeTypeMap.getFileExtensionFromUrl(fileName);
-        if (extension != null) {
-            String type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
-            if (type != null) {
-                return type;
+    private static boolean isNotModified(IHTTPSession session, BundleIndex.Entry entry) {
+        String ifNoneMatch = session.getHeaders().get("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(entry.etag)) {
+                    return true;
+                }
             }
+            return false;
         }
-        return "application/octet-stream";
+
+        String ifModifiedSince = session.getHeaders().get("if-modified-since");
+        if (ifModifiedSince != null) {
+            if (ifModifiedSince.equals(entry.lastModifiedHeader)) {
+                return true;
+            }
+            try {
+                Date since = BundleIndex.httpDateFormat().parse(ifModifiedSince);
+                return since != null && entry.lastModified / 1000 <= since.getTime() / 1000;
+            } catch (java.text.ParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** Whether a Range applies: without If-Range, or with one that names {@code entry}'s current version. */
+    static boolean rangeApplies(String ifRange, BundleIndex.Entry entry) {
+        return ifRange == null || ifRange.equals(entry.etag) || ifRange.equals(entry.lastModifiedHeader);
+    }
+
+    private static void addValidators(Response response, BundleIndex.Entry entry) {
+        response.addHeader("ETag", entry.etag);
+        response.addHeader("Last-Modified", entry.lastModifiedHeader);
+        // Always revalidate: a bundle swap must be visible on the next load, and a 304 is cheap.
+        response.addHeader("Cache-Control", "no-cache");
     }
 }
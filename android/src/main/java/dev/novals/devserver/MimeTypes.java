@@ -0,0 +1,26 @@
+package dev.novals.devserver;
+
+import android.webkit.MimeTypeMap;
+
+/**
+ * Maps file names to MIME types when a bundle is indexed. {@link #ANDROID} uses the platform's
+ * {@link MimeTypeMap}; benchmarks on a plain JVM pass their own table.
+ */
+public interface MimeTypes {
+
+    String DEFAULT_TYPE = "application/octet-stream";
+
+    MimeTypes ANDROID = fileName -> {
+        String extension = MimeTypeMap.getFileExtensionFromUrl(fileName);
+        if (extension != null) {
+            String type = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
+            if (type != null) {
+                return type;
+            }
+        }
+        return DEFAULT_TYPE;
+    };
+
+    /** The MIME type for {@code fileName}, never {@code null}. */
+    String getMimeType(String fileName);
+}
@@ -0,0 +1,139 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a ZIP that is already on disk with several workers. The central directory is read
+ * once, every directory is created up front, and each worker opens its own {@link ZipFile} so
+ * inflation runs on all cores instead of one stream being decoded entry by entry.
+ */
+public class ParallelUnzipper {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    public interface EntryWriter {
+        BundleManifest.Entry write(InputStream in, File target, String path, byte[] buffer) throws Exception;
+    }
+
+    private final int threads;
+
+    public ParallelUnzipper(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Extracts every file entry of {@code zip} below {@code targetDir}, returning what
+     * {@code writer} produced for each, in central-directory order.
+     */
+    public List<BundleManifest.Entry> extract(File zip, File targetDir, EntryWriter writer, CancellationToken token) throws Exception {
+        List<ZipEntry> files = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        TreeSet<String> dirs = new TreeSet<>();
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String path = checkPath(entry.getName());
+                int slash = path.lastIndexOf('/');
+                if (entry.isDirectory()) {
+                    dirs.add(path.endsWith("/") ? path.substring(0, path.length() - 1) : path);
+                    continue;
+                }
+                if (slash > 0) {
+                    dirs.add(path.substring(0, slash));
+                }
+                files.add(entry);
+                paths.add(path);
+            }
+        }
+
+        String rootPath = targetDir.getCanonicalPath() + File.separator;
+        for (String dir : dirs) {
+            File file = new File(targetDir, dir);
+            if (!file.getCanonicalPath().startsWith(rootPath)) {
+                throw new IOException("Illegal entry outside of bundle: " + dir);
+            }
+            if (!file.isDirectory() && !file.mkdirs()) {
+                throw new IOException("Failed to create directory " + file);
+            }
+        }
+
+        BundleManifest.Entry[] results = new BundleManifest.Entry[files.size()];
+        // Largest entries first, so one big file does not start last and stretch the tail.
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> Long.compare(files.get(b).getCompressedSize(), files.get(a).getCompressedSize()));
+
+        int workers = Math.min(threads, Math.max(1, files.size()));
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, (runnable) -> {
+            Thread thread = new Thread(runnable, "DevServer-unzip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                futures.add(pool.submit(() -> {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    try (ZipFile zipFile = new ZipFile(zip)) {
+                        int n;
+                        while ((n = next.getAndIncrement()) < order.size()) {
+                            token.throwIfCancelled();
+                            int index = order.get(n);
+                            try (InputStream in = zipFile.getInputStream(files.get(index))) {
+                                results[index] = writer.write(in, new File(targetDir, paths.get(index)), paths.get(index), buffer);
+                            }
+                        }
+                    } catch (Exception e) {
+                        // Stop the other workers from picking up more entries.
+                        next.set(order.size());
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : new Exception(cause);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<BundleManifest.Entry> list = new ArrayList<>(results.length);
+        Collections.addAll(list, results);
+        return list;
+    }
+
+    /**
+     * The entry name as a bundle path with forward slashes. Absolute names and names with a
+     * {@code ..} segment are rejected, whichever separator they use.
+     */
+    static String checkPath(String name) throws IOException {
+        String path = name.replace('\\', '/');
+        if (path.startsWith("/") || path.equals("..") || path.startsWith("../") || path.contains("/../") || path.endsWith("/..")) {
+            throw new IOException("Illegal entry outside of bundle: " + name);
+        }
+        return path;
+    }
+}
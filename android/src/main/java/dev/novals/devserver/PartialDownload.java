@@ -0,0 +1,265 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashSet;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * A download that keeps its bytes in a per-URL ".part" file, so an interrupted transfer
+ * (even across process restarts) continues with an HTTP Range request instead of starting over.
+ * The stream returned by {@link #open()} always yields the complete body from byte zero.
+ */
+public class PartialDownload {
+
+    private static final Set<String> inProgress = new HashSet<>();
+
+    private final String url;
+    private final String key;
+    private final File partFile;
+    private final File stateFile;
+    private HttpURLConnection connection;
+
+    private PartialDownload(File dir, String url, String key) {
+        this.url = url;
+        this.key = key;
+        this.partFile = new File(dir, key + ".part");
+        this.stateFile = new File(dir, key + ".json");
+    }
+
+    public static PartialDownload begin(File dir, String url) throws Exception {
+        String key = keyFor(url);
+        synchronized (inProgress) {
+            if (!inProgress.add(key)) {
+                throw new Exception("A download of " + url + " is already in progress");
+            }
+        }
+        dir.mkdirs();
+        return new PartialDownload(dir, url, key);
+    }
+
+    public InputStream open() throws Exception {
+        return open(CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #open()}, with the connection torn down as soon as {@code token} is cancelled.
+     */
+    public InputStream open(CancellationToken token) throws Exception {
+        JSONObject state = readState();
+        long offset = partFile.isFile() ? partFile.length() : 0;
+        long total = state != null ? state.optLong("length", -1) : -1;
+        String validator = state != null ? state.optString("validator", "") : "";
+
+        if (offset > 0 && offset == total) {
+            return new FileInputStream(partFile);
+        }
+
+        connection = (HttpURLConnection) new URL(url).openConnection();
+        token.onCancel(connection::disconnect);
+        // Byte offsets must refer to the stored representation, not a transparently gunzipped one.
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        boolean resuming = offset > 0 && !validator.isEmpty();
+        if (resuming) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+        int code;
+        try {
+            connection.connect();
+            code = connection.getResponseCode();
+        } catch (IOException e) {
+            throw new TransferException(e);
+        }
+        if (resuming && code == HttpURLConnection.HTTP_PARTIAL && contentRangeStart(connection) == offset) {
+            InputStream rest = new AppendingInputStream(connection.getInputStream(), new FileOutputStream(partFile, true));
+            return new SequenceInputStream(new FileInputStream(partFile), rest);
+        }
+        if (code != HttpURLConnection.HTTP_OK) {
+            if (resuming) {
+                // Unusable range answer (416, mismatched Content-Range): start over next time.
+                discard();
+            }
+            throw new Exception("Server returned HTTP " + code + " " + connection.getResponseMessage());
+        }
+
+        // Fresh transfer: the server ignored the range or the resource changed.
+        writeState(connection);
+        return new AppendingInputStream(connection.getInputStream(), new FileOutputStream(partFile, false));
+    }
+
+    /** The file holding the bytes received so far; the complete body once the stream is drained. */
+    public File getFile() {
+        return partFile;
+    }
+
+    /** The body was fully consumed and installed; the partial data is no longer needed. */
+    public void complete() {
+        discard();
+    }
+
+    /** The downloaded bytes are unusable (corrupt archive, checksum mismatch). */
+    public void discard() {
+        partFile.delete();
+        stateFile.delete();
+    }
+
+    /** Ends this attempt; anything still on disk is kept for the next one to resume. */
+    public void release() {
+        if (connection != null) {
+            connection.disconnect();
+            connection = null;
+        }
+        synchronized (inProgress) {
+            inProgress.remove(key);
+        }
+    }
+
+    /**
+     * A failure of the connection itself, raised by {@link #open} and by the stream it returns.
+     * Only these leave the partial file worth resuming; the cause is the original exception.
+     */
+    public static class TransferException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TransferException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    private static long contentRangeStart(HttpURLConnection connection) {
+        // Content-Range: bytes 1000-1999/2000
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        try {
+            return dash > 6 ? Long.parseLong(range.substring(6, dash).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private JSONObject readState() {
+        if (!stateFile.isFile() || !partFile.isFile()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(stateFile)) {
+            byte[] data = new byte[(int) stateFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+                if (count == -1) break;
+                read += count;
+            }
+            JSONObject state = new JSONObject(new String(data, 0, read, StandardCharsets.UTF_8));
+            return url.equals(state.optString("url")) ? state : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void writeState(HttpURLConnection connection) throws Exception {
+        // Only a strong ETag (or Last-Modified) can safely validate a resumed range.
+        String etag = connection.getHeaderField("ETag");
+        String validator = etag != null && !etag.startsWith("W/") ? etag : connection.getHeaderField("Last-Modified");
+
+        JSONObject state = new JSONObject();
+        state.put("url", url);
+        state.put("validator", validator != null ? validator : "");
+        state.put("length", connection.getHeaderFieldLong("Content-Length", -1));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(stateFile), StandardCharsets.UTF_8)) {
+            writer.write(state.toString());
+        }
+    }
+
+    private static String keyFor(String url) throws Exception {
+        byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            sb.append(Integer.toString((hash[i] & 0xff) + 0x100, 16).substring(1));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies every byte read from the network into the part file as it passes through. Read
+     * failures of the connection are raised as {@link TransferException}.
+     */
+    private static class AppendingInputStream extends FilterInputStream {
+
+        private final FileOutputStream out;
+
+        AppendingInputStream(InputStream in, FileOutputStream out) {
+            super(in);
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                throw new TransferException(e);
+            }
+            if (b != -1) {
+                out.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count;
+            try {
+                count = super.read(buffer, offset, length);
+            } catch (IOException e) {
+                throw new TransferException(e);
+            }
+            if (count > 0) {
+                out.write(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            int count = read(buffer, 0, buffer.length);
+            return Math.max(count, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
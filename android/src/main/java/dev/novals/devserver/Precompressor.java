@@ -0,0 +1,125 @@
+package dev.novals.devserver;
+
+import com.getcapacitor.Logger;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Produces and looks up pre-compressed ".gz" / ".br" siblings of text assets so the server can
+ * send compressed bytes without compressing on every request. Brotli siblings are only used when
+ * the bundle ships them; Android has no built-in Brotli encoder.
+ */
+public class Precompressor {
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_LAZY = "lazy";
+    public static final String MODE_INSTALL = "install";
+
+    private static final long MIN_SIZE = 1024;
+    private static final Set<String> COMPRESSIBLE = new HashSet<>(
+        java.util.Arrays.asList("html", "htm", "js", "mjs", "cjs", "css", "json", "map", "svg", "txt", "xml", "wasm", "webmanifest")
+    );
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "DevServer-precompress");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final Set<String> pending = Collections.synchronizedSet(new HashSet<>());
+
+    public static boolean isCompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns an up-to-date sibling of {@code file} with the given extension, or {@code null}.
+     * A sibling the bundle {@code shipped} with is trusted as is; one written later must not be
+     * older than the file.
+     */
+    public static File findSibling(File file, String extension, boolean shipped) {
+        File sibling = new File(file.getPath() + extension);
+        return sibling.isFile() && (shipped || sibling.lastModified() >= file.lastModified()) ? sibling : null;
+    }
+
+    /**
+     * Compresses the file on the background worker and attaches the result to the index entry;
+     * the current request is served uncompressed.
+     */
+    public void compressLater(BundleIndex.Entry entry) {
+        File file = entry.file;
+        if (entry.length < MIN_SIZE || !pending.add(file.getPath())) {
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                entry.gzip = new BundleIndex.Entry(gzip(file), entry.mimeType, "gzip");
+            } catch (IOException e) {
+                Logger.debug("Precompression failed for " + file + ": " + e.getMessage());
+            } finally {
+                pending.remove(file.getPath());
+            }
+        });
+    }
+
+    /** Stops the background worker; compressions still queued are dropped. */
+    public void close() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Writes ".gz" siblings for every compressible file under {@code dir} that lacks one. Meant for
+     * a freshly extracted bundle, whose existing siblings were all shipped with it.
+     */
+    public static void compressTree(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                compressTree(file);
+            } else if (isCompressible(file.getName()) && file.length() >= MIN_SIZE && !new File(file.getPath() + ".gz").isFile()) {
+                try {
+                    gzip(file);
+                } catch (IOException e) {
+                    Logger.debug("Precompression failed for " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static File gzip(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".gz.tmp");
+        byte[] buffer = new byte[65536];
+        try (InputStream in = new FileInputStream(file);
+             GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), buffer.length) {
+                 {
+                     def.setLevel(Deflater.BEST_COMPRESSION);
+                 }
+             }) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+        }
+        File sidecar = new File(file.getPath() + ".gz");
+        if (!tmp.renameTo(sidecar)) {
+            tmp.delete();
+            throw new IOException("Failed to write " + sidecar.getName());
+        }
+        return sidecar;
+    }
+}
@@ -0,0 +1,43 @@
+package dev.novals.devserver;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds requests for the loopback server until it is listening. The server starts off the
+ * plugin-loading thread; the first page request is the only thing that has to wait for it,
+ * and only for as long as the start actually takes. Everything else goes to the client the bridge
+ * had before.
+ */
+public class ServerReadyWebViewClient extends DelegatingWebViewClient {
+
+    private static final long MAX_WAIT_MS = 5000;
+
+    private final String authority;
+    private final CountDownLatch ready;
+
+    public ServerReadyWebViewClient(Bridge bridge, int port, CountDownLatch ready) {
+        super(bridge);
+        this.authority = "localhost:" + port;
+        this.ready = ready;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        // Called on a WebView worker thread, so blocking here does not stall the UI.
+        if (ready.getCount() > 0 && authority.equals(request.getUrl().getAuthority())) {
+            long start = System.nanoTime();
+            try {
+                ready.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            StartupTimings.phase("firstRequestWait", start);
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+}
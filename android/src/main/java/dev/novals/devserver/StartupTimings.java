@@ -0,0 +1,46 @@
+package dev.novals.devserver;
+
+import android.os.Process;
+import android.os.SystemClock;
+import com.getcapacitor.JSObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-process record of how long each startup phase took ({@link #phase}) and when key
+ * moments happened relative to process start ({@link #mark}).
+ */
+public class StartupTimings {
+
+    private static final Map<String, Double> phases = new LinkedHashMap<>();
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+
+    /** Records {@code name} as taking from {@code startNanos} (a {@link System#nanoTime()} value) until now; first value wins. */
+    public static synchronized void phase(String name, long startNanos) {
+        if (!phases.containsKey(name)) {
+            phases.put(name, (System.nanoTime() - startNanos) / 1_000_000.0);
+        }
+    }
+
+    /** Records the first time {@code name} happened, in milliseconds since the process started. */
+    public static synchronized void mark(String name) {
+        if (!marks.containsKey(name)) {
+            marks.put(name, SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        }
+    }
+
+    public static synchronized JSObject toJSObject() {
+        JSObject phaseJson = new JSObject();
+        for (Map.Entry<String, Double> entry : phases.entrySet()) {
+            phaseJson.put(entry.getKey(), entry.getValue());
+        }
+        JSObject markJson = new JSObject();
+        for (Map.Entry<String, Long> entry : marks.entrySet()) {
+            markJson.put(entry.getKey(), entry.getValue());
+        }
+        JSObject result = new JSObject();
+        result.put("phases", phaseJson);
+        result.put("marks", markJson);
+        return result;
+    }
+}
@@ -0,0 +1,190 @@
+package dev.novals.devserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs all plugin I/O (update checks, downloads, background maintenance) on one bounded pool.
+ * Tasks are ordered by priority, can be cancelled, and tasks submitted with the same key while
+ * one is still in flight share that one execution instead of starting another transfer.
+ */
+public class TaskScheduler {
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_LOW = 2;
+    public static final int DEFAULT_MAX_CONCURRENT = 2;
+
+    public interface Job<T> {
+        T run(CancellationToken token) throws Exception;
+    }
+
+    public static class Task<T> {
+        public final String key;
+        public final String url;
+        public final String bundleId;
+        public final CompletableFuture<T> future = new CompletableFuture<>();
+        final CancellationToken token = new CancellationToken();
+        // Completes when the job has returned; a cancelled task's future completes before that.
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        Task(String key, String url, String bundleId) {
+            this.key = key;
+            this.url = url;
+            this.bundleId = bundleId;
+        }
+
+        public void cancel() {
+            token.cancel();
+            future.completeExceptionally(new CancellationException("Cancelled"));
+        }
+    }
+
+    private static TaskScheduler shared;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Task<?>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public TaskScheduler(int maxConcurrent) {
+        int threads = Math.max(1, maxConcurrent);
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), (runnable) -> {
+            Thread thread = new Thread(runnable, "DevServer-io-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The process-wide scheduler, created with {@link #DEFAULT_MAX_CONCURRENT} workers if the
+     * plugin has not configured it yet.
+     */
+    public static synchronized TaskScheduler shared() {
+        if (shared == null) {
+            shared = new TaskScheduler(DEFAULT_MAX_CONCURRENT);
+        }
+        return shared;
+    }
+
+    /**
+     * The process-wide scheduler with its concurrency cap set to {@code maxConcurrent}. Only the
+     * plugin configures it; other callers use {@link #shared()}.
+     */
+    public static synchronized TaskScheduler shared(int maxConcurrent) {
+        TaskScheduler scheduler = shared();
+        scheduler.setMaxConcurrent(maxConcurrent);
+        return scheduler;
+    }
+
+    /** Changes the number of workers; running tasks finish, queued ones start under the new cap. */
+    public void setMaxConcurrent(int maxConcurrent) {
+        int threads = Math.max(1, maxConcurrent);
+        // The core size may never exceed the maximum, so the order depends on the direction.
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Schedules {@code job}, or joins the in-flight task with the same non-null key. A key stays in
+     * flight until its job has returned; when that task was cancelled, the new one starts after it.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Task<T> submit(String key, String url, String bundleId, int priority, Job<T> job) {
+        Task<T> task = new Task<>(key, url, bundleId);
+        CompletableFuture<Void> after = null;
+        if (key != null) {
+            Task<?> existing;
+            while ((existing = inFlight.putIfAbsent(key, task)) != null) {
+                if (!existing.token.isCancelled()) {
+                    return (Task<T>) existing;
+                }
+                // The cancelled job may still be writing the same files; wait for it to stop.
+                if (inFlight.replace(key, existing, task)) {
+                    after = existing.finished;
+                    break;
+                }
+            }
+        }
+        Prioritized runner = new Prioritized(priority, sequence.getAndIncrement(), () -> {
+            try {
+                if (!task.future.isDone()) {
+                    task.token.throwIfCancelled();
+                    task.future.complete(job.run(task.token));
+                }
+            } catch (Throwable e) {
+                task.future.completeExceptionally(task.token.isCancelled() ? new CancellationException("Cancelled") : e);
+            } finally {
+                if (key != null) {
+                    inFlight.remove(key, task);
+                }
+                task.finished.complete(null);
+            }
+        });
+        if (after != null) {
+            after.whenComplete((result, error) -> executor.execute(runner));
+        } else {
+            executor.execute(runner);
+        }
+        return task;
+    }
+
+    public void execute(int priority, Runnable runnable) {
+        executor.execute(new Prioritized(priority, sequence.getAndIncrement(), runnable));
+    }
+
+    /**
+     * Cancels in-flight tasks matching the URL and/or bundle id; with neither, every keyed task.
+     */
+    public List<Task<?>> cancel(String url, String bundleId) {
+        List<Task<?>> cancelled = new ArrayList<>();
+        for (Task<?> task : inFlight.values()) {
+            boolean matches = !task.token.isCancelled() && (url == null || url.equals(task.url)) && (bundleId == null || bundleId.equals(task.bundleId));
+            if (matches) {
+                task.cancel();
+                cancelled.add(task);
+            }
+        }
+        return cancelled;
+    }
+
+    private static class Prioritized implements Runnable, Comparable<Prioritized> {
+        private final int priority;
+        private final long sequence;
+        private final Runnable runnable;
+
+        Prioritized(int priority, long sequence, Runnable runnable) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            runnable.run();
+        }
+
+        @Override
+        public int compareTo(Prioritized other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
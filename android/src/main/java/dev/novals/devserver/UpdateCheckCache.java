@@ -0,0 +1,130 @@
+package dev.novals.devserver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.net.HttpURLConnection;
+import java.util.Date;
+import org.json.JSONObject;
+
+/**
+ * Remembers the last update-check answer per (URL, channel, active bundle), with the validators
+ * for a conditional re-check and the time until which the server said not to ask again
+ * ({@code Cache-Control: max-age} for a fresh answer, {@code Retry-After} when throttled).
+ */
+public class UpdateCheckCache {
+
+    private static final String PREFS_NAME = "capacitor_dev_server_update_cache";
+
+    public static class Record {
+        public String etag;
+        public String lastModified;
+        public String result;
+        public long freshUntil;
+        public long retryAfter;
+
+        public boolean isFresh(long now) {
+            return result != null && now < freshUntil;
+        }
+
+        public boolean isThrottled(long now) {
+            return now < retryAfter;
+        }
+    }
+
+    private final SharedPreferences prefs;
+
+    public UpdateCheckCache(Context context) {
+        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static String keyFor(String url, String channel, String activeBundle) {
+        return url + "|" + channel + "|" + (activeBundle != null ? activeBundle : "");
+    }
+
+    public Record get(String key) {
+        String stored = prefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(stored);
+            Record record = new Record();
+            record.etag = json.optString("etag", null);
+            record.lastModified = json.optString("lastModified", null);
+            record.result = json.optString("result", null);
+            record.freshUntil = json.optLong("freshUntil", 0);
+            record.retryAfter = json.optLong("retryAfter", 0);
+            return record;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public void put(String key, Record record) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("etag", record.etag);
+            json.put("lastModified", record.lastModified);
+            json.put("result", record.result);
+            json.put("freshUntil", record.freshUntil);
+            json.put("retryAfter", record.retryAfter);
+            prefs.edit().putString(key, json.toString()).apply();
+        } catch (Exception e) {
+            // A lost cache entry only costs one extra request.
+        }
+    }
+
+    /** Adds the stored validators to a request so an unchanged answer comes back as a 304. */
+    public static void addConditionalHeaders(HttpURLConnection conn, Record record) {
+        if (record == null || record.result == null) {
+            return;
+        }
+        if (record.etag != null) {
+            conn.setRequestProperty("If-None-Match", record.etag);
+        }
+        if (record.lastModified != null) {
+            conn.setRequestProperty("If-Modified-Since", record.lastModified);
+        }
+    }
+
+    /** Freshness lifetime from {@code Cache-Control}; no-cache, no-store and a missing header mean none. */
+    public static long maxAgeMillis(HttpURLConnection conn) {
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        if (cacheControl == null) {
+            return 0;
+        }
+        long maxAge = 0;
+        for (String directive : cacheControl.split(",")) {
+            String token = directive.trim().toLowerCase();
+            if (token.equals("no-cache") || token.equals("no-store")) {
+                return 0;
+            }
+            if (token.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(token.substring(8).replace("\"", "")) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return Math.max(maxAge, 0);
+    }
+
+    /** {@code Retry-After} as delay-seconds or an HTTP date, converted to an absolute time; 0 if absent. */
+    public static long retryAfterTime(HttpURLConnection conn, long now) {
+        String retryAfter = conn.getHeaderField("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return now + Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                Date date = BundleIndex.httpDateFormat().parse(retryAfter.trim());
+                return date != null ? date.getTime() : 0;
+            } catch (java.text.ParseException ignored) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package dev.novals.devserver;
+
+import android.content.Context;
+import com.getcapacitor.JSObject;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The update-check request shared by the plugin calls and the background prefetch job.
+ */
+public class UpdateChecker {
+
+    public interface ZipInstaller {
+        JSObject install(InputStream zip, String bundleId, CancellationToken token) throws Exception;
+    }
+
+    private final Context context;
+    private final UpdateCheckCache cache;
+
+    public UpdateChecker(Context context) {
+        this.context = context;
+        this.cache = new UpdateCheckCache(context);
+    }
+
+    /**
+     * Asks the update server for the latest bundle, answering from the cache when the server allows.
+     * When {@code installer} is set and the server answers with a ZIP, the open response is handed to
+     * it and its result is returned instead of the update info. {@code activeBundle} is the bundle
+     * being served, which a non-persisted apply does not record in the preferences.
+     */
+    public JSObject check(String urlString, String channel, String activeBundle, boolean force, ZipInstaller installer, CancellationToken token) throws Exception {
+        if (activeBundle == null) {
+            activeBundle = "";
+        }
+        String cacheKey = UpdateCheckCache.keyFor(urlString, channel, activeBundle);
+        UpdateCheckCache.Record record = cache.get(cacheKey);
+        long now = System.currentTimeMillis();
+        if (!force && record != null) {
+            // Within max-age, or while the server asked us to back off: answer without a request.
+            if (record.isFresh(now) || (record.isThrottled(now) && record.result != null)) {
+                return cachedResult(record);
+            }
+            if (record.isThrottled(now)) {
+                throw new Exception("update server asked to retry in " + ((record.retryAfter - now + 999) / 1000) + "s");
+            }
+        }
+
+        // Only checks that reach the server are timed; cached answers cost nothing.
+        long start = System.nanoTime();
+        java.net.URL url = new java.net.URL(urlString);
+        java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
+        token.onCancel(conn::disconnect);
+        conn.setRequestMethod("GET");
+
+        // Metadata Headers
+        String deviceId = android.provider.Settings.Secure.getString(context.getContentResolver(), android.provider.Settings.Secure.ANDROID_ID);
+        conn.setRequestProperty("X-Device-Identifier", deviceId);
+        conn.setRequestProperty("X-Platform", "android");
+        conn.setRequestProperty("X-Bundle-Id", activeBundle);
+        conn.setRequestProperty("X-Channel", channel);
+        UpdateCheckCache.addConditionalHeaders(conn, record);
+
+        try {
+            int responseCode = conn.getResponseCode();
+            if (responseCode == java.net.HttpURLConnection.HTTP_NOT_MODIFIED && record != null && record.result != null) {
+                record.freshUntil = now + UpdateCheckCache.maxAgeMillis(conn);
+                record.retryAfter = 0;
+                cache.put(cacheKey, record);
+                DevServerStats.recordStage(DevServerStats.STAGE_CHECK, start);
+                return cachedResult(record);
+            }
+            if (responseCode != 200) {
+                DevServerStats.recordStageFailure(DevServerStats.STAGE_CHECK);
+                long retryAfter = UpdateCheckCache.retryAfterTime(conn, now);
+                if (retryAfter > now) {
+                    UpdateCheckCache.Record throttled = record != null ? record : new UpdateCheckCache.Record();
+                    throttled.retryAfter = retryAfter;
+                    cache.put(cacheKey, throttled);
+                }
+                throw new Exception("server returned HTTP " + responseCode);
+            }
+
+            try (InputStream in = new BufferedInputStream(conn.getInputStream(), 65536)) {
+                if (isZip(conn.getContentType(), in)) {
+                    // This is a direct ZIP file! Try to get real ID from header, fallback to URL hash (without prefix)
+                    String bundleId = conn.getHeaderField("X-Bundle-Id");
+                    if (bundleId == null) {
+                        bundleId = String.valueOf(Math.abs(urlString.hashCode()));
+                    }
+                    DevServerStats.recordStage(DevServerStats.STAGE_CHECK, start);
+                    if (installer != null) {
+                        return installer.install(in, bundleId, token);
+                    }
+
+                    // Only reporting: the body is not needed, and disconnecting drops the rest of it.
+                    JSObject direct = new JSObject();
+                    direct.put("isUpdateAvailable", true);
+                    direct.put("downloadUrl", urlString);
+                    JSObject bundle = new JSObject();
+                    bundle.put("id", bundleId);
+                    direct.put("latestBundle", bundle);
+                    direct.put("fromCache", false);
+                    return direct;
+                }
+
+                JSObject result = UpdateInfoReader.read(in);
+                UpdateCheckCache.Record fresh = new UpdateCheckCache.Record();
+                fresh.etag = conn.getHeaderField("ETag");
+                fresh.lastModified = conn.getHeaderField("Last-Modified");
+                fresh.result = result.toString();
+                fresh.freshUntil = now + UpdateCheckCache.maxAgeMillis(conn);
+                cache.put(cacheKey, fresh);
+                DevServerStats.recordStage(DevServerStats.STAGE_CHECK, start);
+                result.put("fromCache", false);
+                return result;
+            }
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private static JSObject cachedResult(UpdateCheckCache.Record record) throws org.json.JSONException {
+        JSObject result = new JSObject(record.result);
+        result.put("fromCache", true);
+        return result;
+    }
+
+    /**
+     * Recognizes a ZIP body by its Content-Type or, failing that, by the local file header signature.
+     */
+    private static boolean isZip(String contentType, InputStream in) throws IOException {
+        if (contentType != null && (contentType.startsWith("application/zip") || contentType.startsWith("application/x-zip"))) {
+            return true;
+        }
+        byte[] magic = new byte[4];
+        in.mark(magic.length);
+        int read = 0;
+        while (read < magic.length) {
+            int count = in.read(magic, read, magic.length - read);
+            if (count == -1) break;
+            read += count;
+        }
+        in.reset();
+        return read == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4;
+    }
+}
@@ -0,0 +1,96 @@
+package dev.novals.devserver;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.getcapacitor.JSObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Reads an update server's JSON answer token by token into the plugin's result shape. Unknown
+ * fields are skipped without being materialized, and the body is never held as one string.
+ */
+public class UpdateInfoReader {
+
+    public static JSObject read(InputStream in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        JSObject result = new JSObject();
+        result.put("isUpdateAvailable", false);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "is_update_available":
+                    result.put("isUpdateAvailable", reader.peek() == JsonToken.BOOLEAN ? reader.nextBoolean() : readValue(reader) == Boolean.TRUE);
+                    break;
+                case "latest_bundle":
+                    putObject(result, "latestBundle", reader);
+                    break;
+                case "current_bundle":
+                    putObject(result, "currentBundle", reader);
+                    break;
+                case "download_url":
+                    result.put("downloadUrl", readString(reader));
+                    break;
+                case "manifest_url":
+                    result.put("manifestUrl", readString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return result;
+    }
+
+    private static void putObject(JSObject result, String key, JsonReader reader) throws IOException, JSONException {
+        Object value = readValue(reader);
+        if (value instanceof JSONObject) {
+            result.put(key, JSObject.fromJSONObject((JSONObject) value));
+        }
+    }
+
+    private static String readString(JsonReader reader) throws IOException, JSONException {
+        Object value = readValue(reader);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            default:
+                return reader.nextString();
+        }
+    }
+}
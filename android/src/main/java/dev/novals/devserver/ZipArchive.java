@@ -0,0 +1,386 @@
+package dev.novals.devserver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A bundle ZIP served in place. The central directory is read once into a path index and the
+ * file is memory-mapped: STORED members are slices of the mapping, DEFLATED members are inflated
+ * as they are read, or sent unchanged inside a gzip frame to clients that accept gzip. ZIP64 and
+ * encrypted archives are rejected.
+ *
+ * <p>A deflate stream cannot be entered in the middle, so a byte range of a DEFLATED member
+ * inflates everything before it. Small members are read whole into the hot-file cache and ranges
+ * are cut from there; large media that is streamed with ranges is best stored uncompressed.
+ */
+public class ZipArchive {
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int EOCD_MIN_SIZE = 22;
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int GZIP_HEADER_SIZE = 10;
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    public static class Member {
+        public final String path;
+        public final int method;
+        public final long crc;
+        public final long compressedSize;
+        public final long size;
+        final long dataOffset;
+
+        Member(String path, int method, long crc, long compressedSize, long size, long dataOffset) {
+            this.path = path;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    private static final int MAX_OPEN_ARCHIVES = 8;
+
+    // Served archives by path; see shared.
+    private static final Map<String, ZipArchive> OPEN = new LinkedHashMap<String, ZipArchive>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ZipArchive> eldest) {
+            return size() > MAX_OPEN_ARCHIVES;
+        }
+    };
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final ByteBuffer mapped;
+    private final Map<String, Member> members;
+
+    private ZipArchive(File file, long length, long lastModified, ByteBuffer mapped, Map<String, Member> members) {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.mapped = mapped;
+        this.members = members;
+    }
+
+    /**
+     * The archive opened from {@code file} before, if the file's length and mtime are unchanged,
+     * so rebuilding an index (a restage, a switch back) reuses its mapping. A replaced archive is
+     * opened again, and its old mapping is released once no index refers to it.
+     */
+    public static ZipArchive shared(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        synchronized (OPEN) {
+            ZipArchive archive = OPEN.get(key);
+            if (archive != null && archive.length == file.length() && archive.lastModified == file.lastModified()) {
+                return archive;
+            }
+        }
+        ZipArchive archive = open(file);
+        synchronized (OPEN) {
+            OPEN.put(key, archive);
+        }
+        return archive;
+    }
+
+    /** Maps {@code file} and indexes its central directory; fails if the archive cannot be served in place. */
+    public static ZipArchive open(File file) throws IOException {
+        // Read before mapping, so a replacement during the read is seen as a change next time.
+        long lastModified = file.lastModified();
+        ByteBuffer mapped;
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Archive too large to map: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new ZipArchive(file, mapped.limit(), lastModified, mapped, readCentralDirectory(mapped));
+    }
+
+    private static Map<String, Member> readCentralDirectory(ByteBuffer zip) throws ZipException {
+        int eocd = findEndOfCentralDirectory(zip);
+        int count = zip.getShort(eocd + 10) & 0xffff;
+        long cenSize = zip.getInt(eocd + 12) & 0xffffffffL;
+        long cenOffset = zip.getInt(eocd + 16) & 0xffffffffL;
+        if (count == 0xffff || cenSize == 0xffffffffL || cenOffset == 0xffffffffL) {
+            throw new ZipException("ZIP64 archives are not supported");
+        }
+        if (cenOffset + cenSize > eocd) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        Map<String, Member> members = new LinkedHashMap<>();
+        int pos = (int) cenOffset;
+        for (int i = 0; i < count; i++) {
+            if (pos + CEN_HEADER_SIZE > eocd || zip.getInt(pos) != CEN_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry " + i);
+            }
+            int flags = zip.getShort(pos + 8) & 0xffff;
+            int method = zip.getShort(pos + 10) & 0xffff;
+            long crc = zip.getInt(pos + 16) & 0xffffffffL;
+            long compressedSize = zip.getInt(pos + 20) & 0xffffffffL;
+            long size = zip.getInt(pos + 24) & 0xffffffffL;
+            int nameLength = zip.getShort(pos + 28) & 0xffff;
+            int extraLength = zip.getShort(pos + 30) & 0xffff;
+            int commentLength = zip.getShort(pos + 32) & 0xffff;
+            long localOffset = zip.getInt(pos + 42) & 0xffffffffL;
+            String name = readString(zip, pos + CEN_HEADER_SIZE, nameLength);
+            pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            if (name.endsWith("/")) {
+                continue;
+            }
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted entry: " + name);
+            }
+            if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+                throw new ZipException("Unsupported compression method " + method + " for " + name);
+            }
+            if (name.startsWith("/") || name.contains("\\") || ("/" + name + "/").contains("/../")) {
+                throw new ZipException("Illegal entry outside of bundle: " + name);
+            }
+            members.put(name, new Member(name, method, crc, compressedSize, size, dataOffset(zip, localOffset, compressedSize, name)));
+        }
+        return Collections.unmodifiableMap(members);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer zip) throws ZipException {
+        // The record sits at the end, followed only by an archive comment of at most 64 KiB.
+        int last = zip.limit() - EOCD_MIN_SIZE;
+        int first = Math.max(0, last - 0xffff);
+        for (int pos = last; pos >= first; pos--) {
+            if (zip.getInt(pos) == EOCD_SIGNATURE) {
+                return pos;
+            }
+        }
+        throw new ZipException("Not a ZIP archive (no end of central directory)");
+    }
+
+    private static long dataOffset(ByteBuffer zip, long localOffset, long compressedSize, String name) throws ZipException {
+        if (localOffset + LOC_HEADER_SIZE > zip.limit() || zip.getInt((int) localOffset) != LOC_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + name);
+        }
+        int nameLength = zip.getShort((int) localOffset + 26) & 0xffff;
+        int extraLength = zip.getShort((int) localOffset + 28) & 0xffff;
+        long offset = localOffset + LOC_HEADER_SIZE + nameLength + extraLength;
+        if (offset + compressedSize > zip.limit()) {
+            throw new ZipException("Truncated entry " + name);
+        }
+        return offset;
+    }
+
+    private static String readString(ByteBuffer zip, int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = zip.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Collection<Member> members() {
+        return members.values();
+    }
+
+    public Member get(String path) {
+        return members.get(path);
+    }
+
+    /** {@code count} uncompressed bytes of {@code member} starting at {@code start}. */
+    public InputStream open(Member member, long start, long count) throws IOException {
+        if (member.method == METHOD_STORED) {
+            return new BufferInputStream(slice(member.dataOffset + start, count));
+        }
+        InputStream inflated = new RawInflaterInputStream(new BufferInputStream(slice(member.dataOffset, member.compressedSize)));
+        long skipped = 0;
+        while (skipped < start) {
+            long n = inflated.skip(start - skipped);
+            if (n <= 0) {
+                inflated.close();
+                throw new EOFException("Entry shorter than expected: " + member.path);
+            }
+            skipped += n;
+        }
+        return new LimitedInputStream(inflated, count);
+    }
+
+    /** Length of {@link #openGzip}'s full body: the stored deflate data in a gzip frame. */
+    public static long gzipLength(Member member) {
+        return GZIP_HEADER_SIZE + member.compressedSize + GZIP_TRAILER_SIZE;
+    }
+
+    /**
+     * A byte range of {@code member} as a gzip body. A DEFLATED member already holds a raw
+     * deflate stream; with a 10-byte header in front and its CRC and size behind, it is a valid
+     * gzip stream, so nothing is inflated or recompressed.
+     */
+    public InputStream openGzip(Member member, long start, long count) {
+        ByteBuffer header = ByteBuffer.wrap(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+        ByteBuffer trailer = ByteBuffer.allocate(GZIP_TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) member.crc).putInt((int) member.size).flip();
+        ByteBuffer[] parts = { header, slice(member.dataOffset, member.compressedSize), trailer };
+
+        List<InputStream> streams = new ArrayList<>();
+        long skip = start;
+        long remaining = count;
+        for (ByteBuffer part : parts) {
+            int available = part.remaining();
+            if (skip >= available) {
+                skip -= available;
+                continue;
+            }
+            int take = (int) Math.min(available - skip, remaining);
+            ByteBuffer piece = part.duplicate();
+            piece.position(piece.position() + (int) skip);
+            piece.limit(piece.position() + take);
+            streams.add(new BufferInputStream(piece));
+            skip = 0;
+            remaining -= take;
+            if (remaining == 0) {
+                break;
+            }
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    private ByteBuffer slice(long offset, long length) {
+        ByteBuffer view = mapped.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return view;
+    }
+
+    /** Reads a buffer slice; for STORED members this is the mapped file itself. */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /** Inflates raw deflate data and releases the native inflater on close. */
+    private static class RawInflaterInputStream extends InflaterInputStream {
+        private boolean eof;
+
+        RawInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), 8192);
+        }
+
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of compressed entry");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                // Raw inflation may need one byte past the data to finish, as java.util.zip.ZipFile supplies.
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            inf.end();
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
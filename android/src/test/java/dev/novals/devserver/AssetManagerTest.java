@@ -0,0 +1,200 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AssetManagerTest {
+
+    private File root;
+    private NanoHTTPD server;
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-assets");
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop();
+        }
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void rejectedArchiveIsDownloadedAgainFromTheStart() throws Exception {
+        String url = serve(BenchmarkFixtures.zip(slipBundle()));
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+        assetManager.setParallelExtraction(true);
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                assetManager.downloadAndExtract(url, "bundle", true, null);
+                fail("Archive with an entry outside of the bundle was installed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        // A kept .part would be complete, so the retry would not have asked the server at all.
+        assertEquals(2, ranges.size());
+        assertNull(ranges.get(1));
+        assertFalse(new File(root, "files/evil.txt").exists());
+    }
+
+    @Test
+    public void rejectedStreamIsDownloadedAgainFromTheStart() throws Exception {
+        String url = serve(BenchmarkFixtures.zip(slipBundle()));
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                assetManager.downloadAndExtract(url, "bundle", true, null);
+                fail("Archive with an entry outside of the bundle was installed");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+        assertEquals(2, ranges.size());
+        assertNull(ranges.get(1));
+    }
+
+    @Test
+    public void installFromStreamPublishesBundle() throws Exception {
+        Map<String, byte[]> bundle = BenchmarkFixtures.spaBundle(2, 1);
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+        assetManager.installFromStream(new ByteArrayInputStream(BenchmarkFixtures.zip(bundle)), "bundle", null, null, CancellationToken.NONE);
+
+        assertEquals(Collections.singletonList("bundle"), assetManager.getAssetList());
+        assertEquals(bundle.size(), assetManager.getBundleList().get(0).fileCount);
+    }
+
+    @Test
+    public void consecutiveDirectZipSyncsFromOneUrlLeaveTheActiveBundleAlone() throws Exception {
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+        // A direct ZIP without X-Bundle-Id is named after its URL, so every sync brings the same id.
+        String bundleId = String.valueOf(Math.abs("https://updates.example.com/app.zip".hashCode()));
+        String active = null;
+        List<String> served = new ArrayList<>();
+        for (int sync = 1; sync <= 3; sync++) {
+            Map<String, byte[]> bundle = new LinkedHashMap<>();
+            bundle.put("index.html", ("<!doctype html>" + sync).getBytes());
+            String target = AssetManager.updateTarget(bundleId, active);
+            if (active != null) {
+                assertFalse(target.equals(active));
+            }
+            File activeIndex = active != null ? new File(assetManager.getWebRoot(active), "index.html") : null;
+            byte[] before = activeIndex != null ? java.nio.file.Files.readAllBytes(activeIndex.toPath()) : null;
+
+            assetManager.installFromStream(new ByteArrayInputStream(BenchmarkFixtures.zip(bundle)), target, null, null, CancellationToken.NONE);
+
+            if (activeIndex != null) {
+                assertArrayEquals(before, java.nio.file.Files.readAllBytes(activeIndex.toPath()));
+            }
+            assertArrayEquals(bundle.get("index.html"), java.nio.file.Files.readAllBytes(new File(assetManager.getWebRoot(target), "index.html").toPath()));
+            active = target;
+            served.add(target);
+        }
+        // The two names alternate, so only the active bundle and the one before it are kept around.
+        assertEquals(served.get(0), served.get(2));
+        assertEquals(2, assetManager.getAssetList().size());
+    }
+
+    @Test
+    public void deltaPlanUsesStoredHashesWithoutReadingFiles() throws Exception {
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+        Map<String, byte[]> v1 = new LinkedHashMap<>();
+        v1.put("index.html", "<!doctype html>".getBytes());
+        v1.put("app.js", "console.log(1)".getBytes());
+        assetManager.installFromStream(new ByteArrayInputStream(BenchmarkFixtures.zip(v1)), "v1", null, null, CancellationToken.NONE);
+
+        byte[] app = "console.log(2)".getBytes();
+        File index = new File(assetManager.getWebRoot("v1"), "index.html");
+        String manifestUrl = serveDelta(v1.get("index.html"), app);
+        // The hash recorded for index.html no longer applies, and planning does not hash it again;
+        // the blob store still finds its content by the manifest's hash.
+        index.setLastModified(index.lastModified() - 60_000);
+
+        AssetManager.DeltaResult plan = assetManager.planDelta(manifestUrl, "v1");
+        assertEquals(1, plan.filesReused);
+        assertEquals(1, plan.filesDownloaded);
+        assertEquals(app.length, plan.bytesDownloaded);
+
+        AssetManager.DeltaResult result = assetManager.downloadDelta(manifestUrl, "v2", "v1", true);
+        assertEquals(1, result.filesReused);
+        assertEquals(1, result.filesDownloaded);
+        assertArrayEquals(app, java.nio.file.Files.readAllBytes(new File(assetManager.getWebRoot("v2"), "app.js").toPath()));
+    }
+
+    private static Map<String, byte[]> slipBundle() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("index.html", "<!doctype html>".getBytes());
+        files.put("../../evil.txt", "outside".getBytes());
+        return files;
+    }
+
+    /** Serves a manifest for {@code index} and {@code app}, and the files themselves. */
+    private String serveDelta(byte[] index, byte[] app) throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("/index.html", index);
+        files.put("/app.js", app);
+        org.json.JSONArray entries = new org.json.JSONArray();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(file.getValue())) {
+                hex.append(String.format("%02x", b));
+            }
+            entries.put(new org.json.JSONObject().put("path", file.getKey().substring(1)).put("sha256", hex).put("size", file.getValue().length));
+        }
+        files.put("/manifest.json", new org.json.JSONObject().put("files", entries).toString().getBytes());
+        server = new NanoHTTPD(0) {
+            @Override
+            public Response serve(IHTTPSession session) {
+                byte[] body = files.get(session.getUri());
+                if (body == null) {
+                    return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "");
+                }
+                return newFixedLengthResponse(Response.Status.OK, "application/octet-stream", new ByteArrayInputStream(body), body.length);
+            }
+        };
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+        return "http://127.0.0.1:" + server.getListeningPort() + "/manifest.json";
+    }
+
+    /** Serves {@code body} with a strong ETag, so an interrupted download would be resumed. */
+    private String serve(byte[] body) throws IOException {
+        server = new NanoHTTPD(0) {
+            @Override
+            public Response serve(IHTTPSession session) {
+                ranges.add(session.getHeaders().get("range"));
+                Response response = newFixedLengthResponse(Response.Status.OK, "application/zip", new ByteArrayInputStream(body), body.length);
+                response.addHeader("ETag", "\"bundle-1\"");
+                return response;
+            }
+
+            @Override
+            protected boolean useGzipWhenAccepted(Response r) {
+                return false;
+            }
+        };
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+        return "http://127.0.0.1:" + server.getListeningPort() + "/bundle.zip";
+    }
+}
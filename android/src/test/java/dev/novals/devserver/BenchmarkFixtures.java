@@ -0,0 +1,172 @@
+package dev.novals.devserver;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/** Synthetic bundles, storage and a stand-in update server for the benchmarks and tests. */
+final class BenchmarkFixtures {
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+    private static final String[] TOKENS = {
+        "function", "return", "const", "let", "this", "props", "state", "=>", "(", ")", "{", "}", ";",
+        "import", "export", "default", "await", "async", "null", "undefined", "document", "window",
+        "createElement", "useEffect", "useState", "className", "children", "map", "filter", "length"
+    };
+
+    static {
+        TYPES.put("html", "text/html");
+        TYPES.put("js", "application/javascript");
+        TYPES.put("css", "text/css");
+        TYPES.put("png", "image/png");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("json", "application/json");
+    }
+
+    /** A fixed table standing in for {@code MimeTypeMap}, which is a stub off-device. */
+    static final MimeTypes MIME_TYPES = fileName -> {
+        int dot = fileName.lastIndexOf('.');
+        String type = dot >= 0 ? TYPES.get(fileName.substring(dot + 1).toLowerCase()) : null;
+        return type != null ? type : MimeTypes.DEFAULT_TYPE;
+    };
+
+    private BenchmarkFixtures() {}
+
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Storage rooted at {@code root}, standing in for an app {@code Context}. */
+    static AssetManager.Storage storage(File root) {
+        return new AssetManager.Storage() {
+            @Override
+            public File getFilesDir() {
+                return new File(root, "files");
+            }
+
+            @Override
+            public File getCacheDir() {
+                return new File(root, "cache");
+            }
+        };
+    }
+
+    /**
+     * A bundle shaped like a production single-page app: one document, a vendor and an app
+     * script, {@code chunks} lazily loaded script chunks, a stylesheet, images and fonts. Text
+     * files compress roughly like minified code; images and fonts do not compress.
+     */
+    static Map<String, byte[]> spaBundle(int chunks, long seed) {
+        Random random = new Random(seed);
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        StringBuilder html = new StringBuilder("<!doctype html><html><head>");
+        html.append("<link rel=\"stylesheet\" href=\"/assets/index.css\">");
+        html.append("<script type=\"module\" src=\"/assets/vendor.js\"></script>");
+        html.append("<script type=\"module\" src=\"/assets/index.js\"></script>");
+        html.append("</head><body><div id=\"root\"></div></body></html>");
+        files.put("index.html", html.toString().getBytes(StandardCharsets.UTF_8));
+        files.put("assets/vendor.js", text(random, 400 * 1024));
+        files.put("assets/index.js", text(random, 150 * 1024));
+        files.put("assets/index.css", text(random, 60 * 1024));
+        for (int i = 0; i < chunks; i++) {
+            files.put("assets/chunk-" + i + ".js", text(random, 5 * 1024 + random.nextInt(35 * 1024)));
+        }
+        for (int i = 0; i < 30; i++) {
+            files.put("assets/img-" + i + ".png", binary(random, 5 * 1024 + random.nextInt(75 * 1024)));
+        }
+        for (int i = 0; i < 4; i++) {
+            files.put("assets/font-" + i + ".woff2", binary(random, 30 * 1024));
+        }
+        files.put("manifest.json", text(random, 1024));
+        return files;
+    }
+
+    private static byte[] text(Random random, int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        while (sb.length() < size) {
+            sb.append(TOKENS[random.nextInt(TOKENS.length)]);
+            sb.append(random.nextInt(8) == 0 ? '\n' : ' ');
+            if (random.nextInt(16) == 0) {
+                sb.append("v").append(random.nextInt(1000));
+            }
+        }
+        sb.setLength(size);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] binary(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+
+    static byte[] zip(Map<String, byte[]> files) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static void writeTree(File dir, Map<String, byte[]> files) throws IOException {
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            File target = new File(dir, file.getKey());
+            target.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(target)) {
+                out.write(file.getValue());
+            }
+        }
+    }
+
+    static long totalSize(Map<String, byte[]> files) {
+        long total = 0;
+        for (byte[] data : files.values()) {
+            total += data.length;
+        }
+        return total;
+    }
+
+    /** Serves {@code body} at every path with a Content-Length, like a CDN hosting the bundle ZIP. */
+    static NanoHTTPD serveBytes(byte[] body, String mimeType) throws IOException {
+        NanoHTTPD server = new NanoHTTPD(0) {
+            @Override
+            public Response serve(IHTTPSession session) {
+                return newFixedLengthResponse(Response.Status.OK, mimeType, new ByteArrayInputStream(body), body.length);
+            }
+
+            @Override
+            protected boolean useGzipWhenAccepted(Response r) {
+                return false;
+            }
+        };
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+        return server;
+    }
+}
@@ -0,0 +1,133 @@
+package dev.novals.devserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Assume;
+
+/**
+ * A small JMH-style harness for benchmarks on the host JVM. Warm-up iterations are discarded and
+ * measured ones feed a {@link Histogram}. Each result is printed and added to
+ * {@code results.json} in the directory named by {@code devserver.benchmark.out}, so runs of
+ * different versions can be compared. Benchmarks are skipped unless {@code devserver.benchmark}
+ * is true ({@code ./gradlew test -Pbenchmark}).
+ */
+final class Benchmarks {
+
+    interface Op {
+        void run(int iteration) throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final long operations;
+        final long elapsedNanos;
+        final Histogram latency;
+        final Map<String, Double> metrics = new LinkedHashMap<>();
+
+        Result(String name, long operations, long elapsedNanos, Histogram latency) {
+            this.name = name;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+
+        /** Adds a benchmark-specific figure such as MB/s. */
+        Result metric(String key, double value) {
+            metrics.put(key, value);
+            return this;
+        }
+
+        double opsPerSecond() {
+            return operations * 1e9 / elapsedNanos;
+        }
+
+        JSONObject toJSON() throws Exception {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("operations", operations);
+            json.put("elapsedMs", elapsedNanos / 1e6);
+            json.put("opsPerSecond", opsPerSecond());
+            json.put("meanMs", latency.getCount() > 0 ? latency.getSum() / 1000.0 / latency.getCount() : 0);
+            json.put("p50Ms", latency.percentile(0.50) / 1000.0);
+            json.put("p95Ms", latency.percentile(0.95) / 1000.0);
+            json.put("p99Ms", latency.percentile(0.99) / 1000.0);
+            json.put("maxMs", latency.getMax() / 1000.0);
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                json.put(metric.getKey(), metric.getValue());
+            }
+            return json;
+        }
+    }
+
+    private static final List<Result> results = new ArrayList<>();
+
+    private Benchmarks() {}
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks run with -Pbenchmark", Boolean.getBoolean("devserver.benchmark"));
+    }
+
+    /** Runs {@code op} {@code warmup} times untimed, then {@code iterations} times timed. */
+    static Result measure(String name, int warmup, int iterations, Op op) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            op.run(i);
+        }
+        Histogram latency = new Histogram();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long opStart = System.nanoTime();
+            op.run(warmup + i);
+            latency.recordNanos(System.nanoTime() - opStart);
+        }
+        return new Result(name, iterations, System.nanoTime() - start, latency);
+    }
+
+    static synchronized void report(Result result) throws Exception {
+        results.add(result);
+        System.out.println(String.format(
+            java.util.Locale.US,
+            "%-40s %10.1f ops/s  p50 %8.2f ms  p99 %8.2f ms  %s",
+            result.name,
+            result.opsPerSecond(),
+            result.latency.percentile(0.50) / 1000.0,
+            result.latency.percentile(0.99) / 1000.0,
+            result.metrics
+        ));
+        write();
+    }
+
+    private static void write() throws Exception {
+        String dir = System.getProperty("devserver.benchmark.out");
+        if (dir == null) {
+            return;
+        }
+        JSONArray list = new JSONArray();
+        for (Result result : results) {
+            list.put(result.toJSON());
+        }
+        JSONObject root = new JSONObject();
+        root.put("timestamp", System.currentTimeMillis());
+        root.put("java", System.getProperty("java.version"));
+        root.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        root.put("processors", Runtime.getRuntime().availableProcessors());
+        root.put("results", list);
+
+        File out = new File(dir, "results.json");
+        if (!out.getParentFile().isDirectory() && !out.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create directory " + out.getParentFile());
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8)) {
+            writer.write(root.toString(2));
+        }
+    }
+}
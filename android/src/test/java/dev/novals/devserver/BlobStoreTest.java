@@ -0,0 +1,67 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobStoreTest {
+
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private File root;
+    private BlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-blobs");
+        store = new BlobStore(new File(root, "files/blobs"));
+    }
+
+    @After
+    public void tearDown() {
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void linksStoredContentByHash() throws Exception {
+        File tmp = write(store.newTempFile(), "test");
+        store.commit(tmp, HASH, new File(root, "first.txt"));
+
+        File target = new File(root, "second.txt");
+        assertTrue(store.contains(HASH.toUpperCase()));
+        assertTrue(store.linkExisting(HASH, target));
+        assertEquals("test", new String(Files.readAllBytes(target.toPath())));
+        assertFalse(store.linkExisting(HASH.replace('9', '8'), new File(root, "third.txt")));
+    }
+
+    @Test
+    public void hashesThatNamePathsAreIgnored() throws Exception {
+        File secret = write(new File(root, "secret.txt"), "private");
+        // files/blobs/../../secret.txt, were the hash used as a path.
+        String hash = "../secret.txt";
+
+        assertFalse(store.contains(hash));
+        File target = new File(root, "linked.txt");
+        assertFalse(store.linkExisting(hash, target));
+        assertFalse(target.exists());
+        store.release(Collections.singleton(hash));
+        assertTrue(secret.exists());
+    }
+
+    private static File write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BundleIndexTest {
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-index");
+    }
+
+    @After
+    public void tearDown() {
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void shippedSiblingIsUsedWhateverItsMtime() throws Exception {
+        writeApp();
+        BundleIndex.writeShippedSidecars(root, Collections.singletonList("app.js.gz"));
+        // Blobs from different installs: the sidecar's link is older than the source's.
+        new File(root, "app.js.gz").setLastModified(new File(root, "app.js").lastModified() - 60_000);
+
+        BundleIndex.Entry entry = BundleIndex.build(root, BenchmarkFixtures.MIME_TYPES).get("/app.js");
+        assertNotNull(entry.gzip);
+        assertEquals(new File(root, "app.js.gz"), entry.gzip.file);
+    }
+
+    @Test
+    public void olderSiblingThatWasNotShippedIsIgnored() throws Exception {
+        writeApp();
+        new File(root, "app.js.gz").setLastModified(new File(root, "app.js").lastModified() - 60_000);
+
+        assertNull(BundleIndex.build(root, BenchmarkFixtures.MIME_TYPES).get("/app.js").gzip);
+    }
+
+    @Test
+    public void pluginFilesAreNotServed() throws Exception {
+        writeApp();
+        BundleIndex.writeShippedSidecars(root, Collections.singletonList("app.js.gz"));
+
+        BundleIndex index = BundleIndex.build(root, BenchmarkFixtures.MIME_TYPES);
+        assertNull(index.get("/" + BundleIndex.SIDECARS_FILE_NAME));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void installRecordsShippedSiblings() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("dist/index.html", "<!doctype html>".getBytes());
+        files.put("dist/app.js", "console.log(1)".getBytes());
+        files.put("dist/app.js.gz", "not really gzip".getBytes());
+        File storage = new File(root, "storage");
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(storage));
+        assetManager.installFromStream(new ByteArrayInputStream(BenchmarkFixtures.zip(files)), "bundle", null, null, CancellationToken.NONE);
+
+        File webRoot = assetManager.getWebRoot("bundle");
+        new File(webRoot, "app.js.gz").setLastModified(new File(webRoot, "app.js").lastModified() - 60_000);
+        assertNotNull(BundleIndex.build(webRoot, BenchmarkFixtures.MIME_TYPES).get("/app.js").gzip);
+    }
+
+    private void writeApp() throws Exception {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("app.js", "console.log(1)".getBytes());
+        files.put("app.js.gz", "not really gzip".getBytes());
+        BenchmarkFixtures.writeTree(root, files);
+    }
+}
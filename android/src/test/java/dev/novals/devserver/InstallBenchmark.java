@@ -0,0 +1,113 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Install path: hashing, ZIP extraction into the blob store, and the whole download-and-extract
+ * flow (or download-and-rename, for archive bundles) against a local stand-in for the update
+ * server. Every measured install starts from empty storage, like the first install of a bundle on
+ * a device.
+ */
+public class InstallBenchmark {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    private File root;
+    private Map<String, byte[]> bundle;
+    private byte[] zip;
+    private long bundleSize;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        root = BenchmarkFixtures.tempDir("devserver-install");
+        bundle = BenchmarkFixtures.spaBundle(150, 42);
+        zip = BenchmarkFixtures.zip(bundle);
+        bundleSize = BenchmarkFixtures.totalSize(bundle);
+    }
+
+    @After
+    public void tearDown() {
+        if (root != null) {
+            BenchmarkFixtures.deleteRecursive(root);
+        }
+    }
+
+    @Test
+    public void calculateSHA256() throws Exception {
+        File file = new File(root, "large.bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(7).nextBytes(block);
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 32; i++) {
+                out.write(block);
+            }
+        }
+
+        Benchmarks.Result result = Benchmarks.measure("install.sha256.32MB", WARMUP, ITERATIONS, (i) -> assertNotNull(AssetManager.calculateSHA256(file)));
+        Benchmarks.report(result.metric("mbPerSecond", 32 * result.opsPerSecond()));
+    }
+
+    @Test
+    public void installFromStream() throws Exception {
+        Benchmarks.Result result = Benchmarks.measure("install.unzipStream", WARMUP, ITERATIONS, (i) -> {
+            AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(new File(root, "run-" + i)));
+            assetManager.installFromStream(new ByteArrayInputStream(zip), "bundle", null, null, CancellationToken.NONE);
+            assertEquals(bundle.size(), assetManager.getBundleList().get(0).fileCount);
+        });
+        Benchmarks.report(withBundleMetrics(result));
+    }
+
+    @Test
+    public void downloadAndExtractStreaming() throws Exception {
+        download("install.downloadAndExtract.streaming", false, false);
+    }
+
+    @Test
+    public void downloadAndExtractParallel() throws Exception {
+        download("install.downloadAndExtract.parallel", true, false);
+    }
+
+    @Test
+    public void downloadArchive() throws Exception {
+        download("install.downloadArchive", false, true);
+    }
+
+    private void download(String name, boolean parallel, boolean archive) throws Exception {
+        NanoHTTPD server = BenchmarkFixtures.serveBytes(zip, "application/zip");
+        String url = "http://127.0.0.1:" + server.getListeningPort() + "/bundle.zip";
+        try {
+            Benchmarks.Result result = Benchmarks.measure(name, WARMUP, ITERATIONS, (i) -> {
+                AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(new File(root, name + "-" + i)));
+                assetManager.setParallelExtraction(parallel);
+                assetManager.setArchiveInstall(archive);
+                assetManager.downloadAndExtract(url, "bundle", true, null, CancellationToken.NONE);
+                assertNotNull(assetManager.getWebRoot("bundle"));
+            });
+            Benchmarks.report(withBundleMetrics(result));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private Benchmarks.Result withBundleMetrics(Benchmarks.Result result) {
+        return result
+            .metric("files", bundle.size())
+            .metric("zipBytes", zip.length)
+            .metric("filesPerSecond", bundle.size() * result.opsPerSecond())
+            .metric("mbPerSecond", bundleSize / (1024.0 * 1024.0) * result.opsPerSecond());
+    }
+}
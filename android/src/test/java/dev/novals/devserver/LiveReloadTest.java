@@ -0,0 +1,293 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LiveReloadTest {
+
+    private static final String TOKEN = "secret";
+
+    private File root;
+    private File bundle;
+    private LocalServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-live");
+        bundle = new File(root, "bundle");
+        Map<String, byte[]> files = new java.util.LinkedHashMap<>();
+        files.put("index.html", "<!doctype html>".getBytes(StandardCharsets.UTF_8));
+        files.put("assets/app.js", "console.log(0)".getBytes(StandardCharsets.UTF_8));
+        BenchmarkFixtures.writeTree(bundle, files);
+        DevServerConfig config = new DevServerConfig();
+        config.devToken = TOKEN;
+        server = new LocalServer(0, bundle, config, BenchmarkFixtures.MIME_TYPES);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void putReplacesFileAndServesIt() throws Exception {
+        assertEquals(200, request("PUT", "/__devserver/files/assets/app.js", utf8("console.log(1)"), TOKEN).status);
+        assertEquals("console.log(1)", request("GET", "/assets/app.js", null, null).text());
+    }
+
+    @Test
+    public void pushWithoutTokenIsRejected() throws Exception {
+        DevServerStats.reset();
+        assertEquals(401, request("PUT", "/__devserver/files/assets/app.js", utf8("x"), null).status);
+        assertEquals(401, request("PUT", "/__devserver/files/assets/app.js", utf8("x"), "wrong").status);
+        assertEquals("console.log(0)", read("assets/app.js"));
+        assertEquals(2, DevServerStats.toJSObject(null).getJSONObject("server").getLong("forbidden"));
+    }
+
+    @Test
+    public void pluginFilesCannotBePushed() throws Exception {
+        assertEquals(400, request("PUT", "/__devserver/files/" + BundleIndex.SIDECARS_FILE_NAME, utf8("{}"), TOKEN).status);
+    }
+
+    @Test
+    public void concurrentPushesToOnePathNeverMix() throws Exception {
+        int writers = 8;
+        List<byte[]> bodies = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            byte[] body = new byte[256 * 1024];
+            Arrays.fill(body, (byte) ('a' + i));
+            bodies.add(body);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (byte[] body : bodies) {
+                results.add(pool.submit(() -> request("PUT", "/__devserver/files/assets/big.js", body, TOKEN).status));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(200, (int) result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        byte[] written = Files.readAllBytes(new File(bundle, "assets/big.js").toPath());
+        boolean whole = false;
+        for (byte[] body : bodies) {
+            whole |= Arrays.equals(body, written);
+        }
+        assertTrue("File mixes several pushes", whole);
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void patchUsesUstarPrefix() throws Exception {
+        Tar tar = new Tar().file("deep/dir", "app.js", "prefixed");
+        assertEquals(200, request("PATCH", "/__devserver/files/", tar.bytes(), TOKEN).status);
+        assertEquals("prefixed", read("deep/dir/app.js"));
+    }
+
+    @Test
+    public void patchUsesGnuLongName() throws Exception {
+        String longPath = "assets/" + repeat("nested/", 20) + "chunk.js";
+        Tar tar = new Tar().longName(longPath).file("", longPath.substring(0, 100), "long");
+        assertEquals(200, request("PATCH", "/__devserver/files/", tar.bytes(), TOKEN).status);
+        assertEquals("long", read(longPath));
+    }
+
+    @Test
+    public void patchUsesPaxPath() throws Exception {
+        String longPath = "assets/" + repeat("pax/", 30) + "chunk.js";
+        Tar tar = new Tar().paxPath(longPath).file("", "PaxHeader-truncated", "pax");
+        assertEquals(200, request("PATCH", "/__devserver/files/assets/", tar.bytes(), TOKEN).status);
+        assertEquals("pax", read("assets/" + longPath));
+        assertFalse(new File(bundle, "assets/PaxHeader-truncated").exists());
+    }
+
+    @Test
+    public void truncatedHeaderIsRejected() throws Exception {
+        byte[] full = new Tar().file("", "a.js", "a").file("", "b.js", "b").bytes();
+        byte[] cut = Arrays.copyOf(full, 1024 + 200);
+        assertEquals(400, request("PATCH", "/__devserver/files/", cut, TOKEN).status);
+        // A batch applies as a whole or not at all.
+        assertFalse(new File(bundle, "a.js").exists());
+        assertNoTempFiles();
+    }
+
+    @Test
+    public void memberOutsideTheBundleIsRejected() throws Exception {
+        byte[] tar = new Tar().file("", "ok.js", "ok").file("", "../escaped.js", "bad").bytes();
+        assertEquals(400, request("PATCH", "/__devserver/files/", tar, TOKEN).status);
+        assertFalse(new File(root, "escaped.js").exists());
+        assertFalse(new File(bundle, "ok.js").exists());
+        assertNoTempFiles();
+
+        assertEquals(400, request("PATCH", "/__devserver/files/assets/", new Tar().file("", "../../escaped.js", "bad").bytes(), TOKEN).status);
+        assertFalse(new File(root, "escaped.js").exists());
+    }
+
+    private String read(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(bundle, path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void assertNoTempFiles() {
+        List<String> temps = new ArrayList<>();
+        collectTemps(bundle, temps);
+        assertTrue(temps.toString(), temps.isEmpty());
+    }
+
+    private static void collectTemps(File dir, List<String> temps) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectTemps(file, temps);
+            } else if (file.getName().startsWith(BundleIndex.PRIVATE_PREFIX)) {
+                temps.add(file.getPath());
+            }
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    private static class Reply {
+        final int status;
+        final byte[] body;
+
+        Reply(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        String text() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** A bare HTTP/1.1 exchange; HttpURLConnection cannot send PATCH. */
+    private Reply request(String method, String path, byte[] body, String token) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            socket.setSoTimeout(10_000);
+            StringBuilder head = new StringBuilder(method + " " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n");
+            if (token != null) {
+                head.append("Authorization: Bearer ").append(token).append("\r\n");
+            }
+            if (body != null) {
+                head.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                response.write(buffer, 0, count);
+            }
+            byte[] raw = response.toByteArray();
+            String text = new String(raw, StandardCharsets.ISO_8859_1);
+            int end = text.indexOf("\r\n\r\n");
+            int status = Integer.parseInt(text.substring(9, 12));
+            return new Reply(status, Arrays.copyOfRange(raw, end + 4, raw.length));
+        }
+    }
+
+    /** Writes ustar archives, with the GNU and pax records that carry long names. */
+    private static class Tar {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tar file(String prefix, String name, String content) {
+            return entry(prefix, name, '0', utf8(content));
+        }
+
+        Tar longName(String name) {
+            return entry("", "././@LongLink", 'L', utf8(name + "\0"));
+        }
+
+        Tar paxPath(String path) {
+            String record = " path=" + path + "\n";
+            int length = record.length();
+            length += Integer.toString(length + Integer.toString(length).length()).length();
+            return entry("", "PaxHeader", 'x', utf8(length + record));
+        }
+
+        private Tar entry(String prefix, String name, char type, byte[] data) {
+            byte[] header = new byte[512];
+            put(header, 0, name, 100);
+            put(header, 100, "0000644", 8);
+            put(header, 108, "0000000", 8);
+            put(header, 116, "0000000", 8);
+            put(header, 124, String.format("%011o", data.length), 12);
+            put(header, 136, "00000000000", 12);
+            header[156] = (byte) type;
+            put(header, 257, "ustar", 6);
+            put(header, 263, "00", 2);
+            put(header, 345, prefix, 155);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            int sum = 0;
+            for (byte b : header) {
+                sum += b & 0xff;
+            }
+            put(header, 148, String.format("%06o", sum), 7);
+            out.write(header, 0, header.length);
+            out.write(data, 0, data.length);
+            int padding = (512 - data.length % 512) % 512;
+            out.write(new byte[padding], 0, padding);
+            return this;
+        }
+
+        byte[] bytes() {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            byte[] entries = out.toByteArray();
+            archive.write(entries, 0, entries.length);
+            archive.write(new byte[1024], 0, 1024);
+            return archive.toByteArray();
+        }
+
+        private static void put(byte[] header, int offset, String value, int length) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > length) {
+                throw new IllegalArgumentException("Field too long: " + value);
+            }
+            System.arraycopy(bytes, 0, header, offset, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link LocalServer#serve} under load shaped like a WebView: the document first, then its
+ * subresources over six keep-alive connections (Chromium's per-host limit), with the headers a
+ * WebView sends.
+ */
+public class LocalServerBenchmark {
+
+    private static final int CONNECTIONS = 6;
+    private static final int COLD_STARTS = 50;
+    private static final long THROUGHPUT_MILLIS = 5000;
+    private static final int LAUNCHES = 30;
+    // Stand-in for the WebView's own startup between the server start and its first request.
+    private static final long WEBVIEW_STARTUP_MILLIS = 30;
+
+    static {
+        // HttpURLConnection keeps only five idle connections per host unless told otherwise.
+        System.setProperty("http.maxConnections", String.valueOf(CONNECTIONS));
+    }
+
+    private File root;
+    private LocalServer server;
+    private String baseUrl;
+    private List<String> coldStartPaths;
+    private ExecutorService clients;
+
+    @Before
+    public void setUp() throws Exception {
+        Benchmarks.assumeEnabled();
+        root = BenchmarkFixtures.tempDir("devserver-serve");
+        Map<String, byte[]> bundle = BenchmarkFixtures.spaBundle(150, 42);
+        BenchmarkFixtures.writeTree(root, bundle);
+
+        // What a cold start fetches: the entry points, part of the lazy chunks, images and fonts.
+        coldStartPaths = new ArrayList<>();
+        for (String path : bundle.keySet()) {
+            if (!path.equals("index.html") && (!path.contains("chunk-") || path.matches(".*chunk-[0-9]\\.js"))) {
+                coldStartPaths.add("/" + path);
+            }
+        }
+
+        server = new LocalServer(0, root, new DevServerConfig(), BenchmarkFixtures.MIME_TYPES);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getListeningPort();
+        clients = Executors.newFixedThreadPool(CONNECTIONS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (clients != null) {
+            clients.shutdownNow();
+            clients.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (root != null) {
+            BenchmarkFixtures.deleteRecursive(root);
+        }
+    }
+
+    @Test
+    public void coldStart() throws Exception {
+        Histogram requestLatency = new Histogram();
+        Benchmarks.Result result = Benchmarks.measure("serve.coldStart", 5, COLD_STARTS, (i) -> {
+            fetch("/", requestLatency);
+            List<Future<?>> pending = new ArrayList<>();
+            for (String path : coldStartPaths) {
+                pending.add(clients.submit(() -> fetch(path, requestLatency)));
+            }
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        });
+        Benchmarks.report(result
+            .metric("requestsPerLoad", coldStartPaths.size() + 1)
+            .metric("requestP50Ms", requestLatency.percentile(0.50) / 1000.0)
+            .metric("requestP99Ms", requestLatency.percentile(0.99) / 1000.0));
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        Histogram latency = new Histogram();
+        AtomicLong bytes = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_MILLIS);
+        long start = System.nanoTime();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int c = 0; c < CONNECTIONS; c++) {
+            int offset = c;
+            workers.add(clients.submit(() -> {
+                for (int i = offset; System.nanoTime() < deadline; i++) {
+                    bytes.addAndGet(fetch(coldStartPaths.get(i % coldStartPaths.size()), latency));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        Benchmarks.report(new Benchmarks.Result("serve.throughput", latency.getCount(), elapsed, latency)
+            .metric("connections", CONNECTIONS)
+            .metric("mbPerSecond", bytes.get() / (1024.0 * 1024.0) / (elapsed / 1e9)));
+    }
+
+    @Test
+    public void launchWithoutReadahead() throws Exception {
+        launch("serve.launch.noReadahead", false);
+    }
+
+    @Test
+    public void launchWithReadahead() throws Exception {
+        launch("serve.launch.readahead", true);
+    }
+
+    /**
+     * App launches: each starts a fresh server with an empty hot-file cache, waits for the WebView
+     * to start, then times its first load. A first, unmeasured launch records the access order.
+     */
+    private void launch(String name, boolean readahead) throws Exception {
+        File orders = BenchmarkFixtures.tempDir("devserver-orders");
+        DevServerConfig config = new DevServerConfig();
+        config.readahead = readahead;
+        Histogram latency = new Histogram();
+        long elapsed = 0;
+        try {
+            for (int i = 0; i <= LAUNCHES; i++) {
+                LocalServer launched = new LocalServer(0, null, config, BenchmarkFixtures.MIME_TYPES);
+                launched.setAccessOrderFiles((bundle) -> new File(orders, bundle + ".access.json"));
+                launched.setRoot("bundle", root, 0);
+                launched.start();
+                baseUrl = "http://127.0.0.1:" + launched.getListeningPort();
+                try {
+                    Thread.sleep(WEBVIEW_STARTUP_MILLIS);
+                    long start = System.nanoTime();
+                    fetch("/", new Histogram());
+                    List<Future<?>> pending = new ArrayList<>();
+                    for (String path : coldStartPaths) {
+                        pending.add(clients.submit(() -> fetch(path, new Histogram())));
+                    }
+                    for (Future<?> future : pending) {
+                        future.get();
+                    }
+                    if (i > 0) {
+                        latency.recordNanos(System.nanoTime() - start);
+                        elapsed += System.nanoTime() - start;
+                    }
+                } finally {
+                    launched.stop();
+                }
+            }
+        } finally {
+            BenchmarkFixtures.deleteRecursive(orders);
+        }
+        Benchmarks.report(new Benchmarks.Result(name, LAUNCHES, elapsed, latency).metric("requestsPerLoad", coldStartPaths.size() + 1));
+    }
+
+    /** Fetches one path on a pooled keep-alive connection; returns the body size. */
+    private long fetch(String path, Histogram latency) throws Exception {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        connection.setRequestProperty("Accept", "*/*");
+        connection.setRequestProperty("User-Agent", "Mozilla/5.0 (Linux; Android 14; wv) AppleWebKit/537.36");
+        assertEquals(200, connection.getResponseCode());
+        long size = 0;
+        byte[] buffer = new byte[16384];
+        try (InputStream in = connection.getInputStream()) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                size += count;
+            }
+        }
+        latency.recordNanos(System.nanoTime() - start);
+        return size;
+    }
+}
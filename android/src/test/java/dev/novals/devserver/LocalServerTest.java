@@ -0,0 +1,295 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalServerTest {
+
+    private static final byte[] MEDIA = new byte[1000];
+
+    static {
+        for (int i = 0; i < MEDIA.length; i++) {
+            MEDIA[i] = (byte) (i % 251);
+        }
+    }
+
+    private File root;
+    private LocalServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-local");
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("index.html", "<!doctype html>".getBytes(StandardCharsets.UTF_8));
+        files.put("app.js", "console.log(1)".getBytes(StandardCharsets.UTF_8));
+        files.put("media.bin", MEDIA);
+        BenchmarkFixtures.writeTree(root, files);
+        server = new LocalServer(0, null, new DevServerConfig(), BenchmarkFixtures.MIME_TYPES);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void stagedBundleSurvivesWritesToItsDirectory() throws Exception {
+        server.stage("bundle", root, 1);
+        // A lazily written sidecar, or a live-reload push, moves the directory's mtime.
+        new File(root, "app.js.gz").createNewFile();
+        root.setLastModified(root.lastModified() + 5_000);
+
+        assertTrue(server.activate("bundle", 1));
+        assertEquals("bundle", server.getActiveName());
+    }
+
+    @Test
+    public void virtualHostsAreValidAndDistinct() throws Exception {
+        assertEquals("build-v3.localhost", LocalServer.virtualHost("build-v3"));
+        String[] names = {"Build_V3", "build_v3", "build.v3", "build v3", "x-6275", "b\u00fcndel", repeat("long-name-", 10)};
+        java.util.Set<String> hosts = new java.util.HashSet<>();
+        for (String name : names) {
+            String host = LocalServer.virtualHost(name);
+            assertTrue(host, host.matches("([a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?\\.)+localhost"));
+            assertTrue(host, hosts.add(host));
+        }
+        assertNull(LocalServer.virtualHost(repeat("n", 200)));
+    }
+
+    @Test
+    public void stagedBundleAnswersOnItsVirtualHost() throws Exception {
+        server.start();
+        server.stage("My_Bundle", root, 1);
+
+        assertEquals(200, get(LocalServer.virtualHost("My_Bundle"), "/app.js"));
+        assertEquals(404, get("my_bundle.localhost", "/app.js"));
+    }
+
+    @Test
+    public void reinstalledBundleIsNotActivatedFromItsOldIndex() throws Exception {
+        server.stage("bundle", root, 1);
+
+        assertFalse(server.activate("bundle", 2));
+        assertNull(server.getActiveName());
+    }
+
+    @Test
+    public void parsesSuffixAndOpenEndedRanges() {
+        assertRanges(LocalServer.parseRanges("bytes=-100", 1000), 900, 999);
+        assertRanges(LocalServer.parseRanges("bytes=-5000", 1000), 0, 999);
+        assertRanges(LocalServer.parseRanges("bytes=500-", 1000), 500, 999);
+        assertRanges(LocalServer.parseRanges("bytes=900-5000", 1000), 900, 999);
+    }
+
+    @Test
+    public void keepsOverlappingRangesAsRequested() {
+        assertRanges(LocalServer.parseRanges("bytes=0-99, 50-149", 1000), 0, 99, 50, 149);
+    }
+
+    @Test
+    public void dropsUnsatisfiableRanges() {
+        assertRanges(LocalServer.parseRanges("bytes=0-9,2000-3000", 1000), 0, 9);
+        assertNull(LocalServer.parseRanges("bytes=1000-1100", 1000));
+        assertNull(LocalServer.parseRanges("bytes=5-2", 1000));
+        assertNull(LocalServer.parseRanges("bytes=0-9", 0));
+    }
+
+    @Test
+    public void rejectsMalformedRanges() {
+        assertNull(LocalServer.parseRanges("items=0-9", 1000));
+        assertNull(LocalServer.parseRanges("bytes=abc", 1000));
+        assertNull(LocalServer.parseRanges("bytes=0-x", 1000));
+    }
+
+    @Test
+    public void limitsTheNumberOfRanges() {
+        assertEquals(16, LocalServer.parseRanges("bytes=" + ranges(16), 1000).length);
+        assertNull(LocalServer.parseRanges("bytes=" + ranges(17), 1000));
+    }
+
+    @Test
+    public void honoursAcceptEncodingQValues() {
+        assertTrue(LocalServer.acceptsEncoding("gzip, deflate, br", "br"));
+        assertTrue(LocalServer.acceptsEncoding("GZIP;q=0.5", "gzip"));
+        assertFalse(LocalServer.acceptsEncoding("gzip, br;q=0", "br"));
+        assertFalse(LocalServer.acceptsEncoding("br ; q=0.000, gzip", "br"));
+        assertFalse(LocalServer.acceptsEncoding("gzip;q=abc", "gzip"));
+        assertFalse(LocalServer.acceptsEncoding("brotli", "br"));
+        assertTrue(LocalServer.acceptsEncoding("*", "br"));
+        assertFalse(LocalServer.acceptsEncoding("*, br;q=0", "br"));
+        assertFalse(LocalServer.acceptsEncoding(null, "gzip"));
+    }
+
+    @Test
+    public void servesOneRange() throws Exception {
+        serveRoot();
+        Reply reply = fetch("/media.bin", "Range", "bytes=100-199");
+
+        assertEquals(206, reply.status);
+        assertEquals("bytes 100-199/1000", reply.headers.get("content-range"));
+        assertArrayEquals(Arrays.copyOfRange(MEDIA, 100, 200), reply.body);
+    }
+
+    @Test
+    public void servesSeveralRangesAsMultipart() throws Exception {
+        serveRoot();
+        Reply reply = fetch("/media.bin", "Range", "bytes=0-9,-10");
+
+        assertEquals(206, reply.status);
+        String type = reply.headers.get("content-type");
+        assertTrue(type, type.startsWith("multipart/byteranges; boundary="));
+        String boundary = type.substring(type.indexOf('=') + 1);
+        assertEquals(String.valueOf(reply.body.length), reply.headers.get("content-length"));
+
+        String body = new String(reply.body, StandardCharsets.ISO_8859_1);
+        String[] parts = body.split("\r\n--" + boundary);
+        // Leading empty preamble, two parts, then the closing "--".
+        assertEquals(4, parts.length);
+        assertPart(parts[1], "bytes 0-9/1000", Arrays.copyOfRange(MEDIA, 0, 10));
+        assertPart(parts[2], "bytes 990-999/1000", Arrays.copyOfRange(MEDIA, 990, 1000));
+        assertEquals("--\r\n", parts[3]);
+    }
+
+    @Test
+    public void unsatisfiableRangeIs416() throws Exception {
+        serveRoot();
+        Reply reply = fetch("/media.bin", "Range", "bytes=2000-");
+
+        assertEquals(416, reply.status);
+        assertEquals("bytes */1000", reply.headers.get("content-range"));
+    }
+
+    @Test
+    public void tooManyRangesAre416() throws Exception {
+        serveRoot();
+        assertEquals(416, fetch("/media.bin", "Range", "bytes=" + ranges(17)).status);
+    }
+
+    @Test
+    public void staleIfRangeGetsTheWholeFile() throws Exception {
+        serveRoot();
+        String etag = fetch("/media.bin").headers.get("etag");
+
+        Reply stale = fetch("/media.bin", "Range", "bytes=0-9", "If-Range", "\"stale\"");
+        assertEquals(200, stale.status);
+        assertArrayEquals(MEDIA, stale.body);
+
+        Reply current = fetch("/media.bin", "Range", "bytes=0-9", "If-Range", etag);
+        assertEquals(206, current.status);
+        assertArrayEquals(Arrays.copyOfRange(MEDIA, 0, 10), current.body);
+    }
+
+    @Test
+    public void textWithoutSidecarIsSentAsStored() throws Exception {
+        serveRoot();
+        Reply reply = fetch("/index.html", "Accept-Encoding", "gzip");
+
+        assertEquals(200, reply.status);
+        assertNull(reply.headers.get("content-encoding"));
+        assertEquals("15", reply.headers.get("content-length"));
+        assertArrayEquals("<!doctype html>".getBytes(StandardCharsets.UTF_8), reply.body);
+    }
+
+    private void serveRoot() throws Exception {
+        server.setRootDir(root);
+        server.start();
+    }
+
+    private static String ranges(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(i > 0 ? "," : "").append(i * 10).append('-').append(i * 10 + 4);
+        }
+        return sb.toString();
+    }
+
+    private static void assertRanges(long[][] ranges, long... bounds) {
+        long[] flat = new long[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            flat[2 * i] = ranges[i][0];
+            flat[2 * i + 1] = ranges[i][1];
+        }
+        assertArrayEquals(bounds, flat);
+    }
+
+    private static void assertPart(String part, String contentRange, byte[] data) {
+        int end = part.indexOf("\r\n\r\n");
+        assertTrue(part.substring(0, end), part.substring(0, end).contains("Content-Range: " + contentRange));
+        assertArrayEquals(data, part.substring(end + 4).getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static class Reply {
+        final int status;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Reply(int status, Map<String, String> headers, byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    private int get(String host, String path) throws Exception {
+        return request(host, path).status;
+    }
+
+    private Reply fetch(String path, String... headers) throws Exception {
+        return request("localhost", path, headers);
+    }
+
+    /** A bare GET; HttpURLConnection does not let the Host header be set. */
+    private Reply request(String host, String path, String... headers) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            socket.setSoTimeout(10_000);
+            StringBuilder request = new StringBuilder("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n");
+            for (int i = 0; i < headers.length; i += 2) {
+                request.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+            }
+            socket.getOutputStream().write(request.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII));
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                response.write(buffer, 0, count);
+            }
+            byte[] raw = response.toByteArray();
+            String text = new String(raw, StandardCharsets.ISO_8859_1);
+            int end = text.indexOf("\r\n\r\n");
+            String[] lines = text.substring(0, end).split("\r\n");
+            Map<String, String> fields = new HashMap<>();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                fields.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+            return new Reply(Integer.parseInt(lines[0].substring(9, 12)), fields, Arrays.copyOfRange(raw, end + 4, raw.length));
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+}
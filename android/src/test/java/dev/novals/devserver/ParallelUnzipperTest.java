@@ -0,0 +1,138 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Extraction of ZIPs on disk, and the zip-slip guard shared with streaming installs. */
+public class ParallelUnzipperTest {
+
+    private static final ParallelUnzipper.EntryWriter COPY = (in, target, path, buffer) -> {
+        long size = 0;
+        try (OutputStream out = new FileOutputStream(target)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+                size += count;
+            }
+        }
+        return new BundleManifest.Entry(path, "", size);
+    };
+
+    private File root;
+    private File targetDir;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-unzip");
+        targetDir = new File(root, "bundles/staging");
+        targetDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void extractsEveryFile() throws Exception {
+        Map<String, byte[]> bundle = BenchmarkFixtures.spaBundle(5, 3);
+        File zip = writeZip(bundle);
+
+        List<BundleManifest.Entry> entries = new ParallelUnzipper(4).extract(zip, targetDir, COPY, CancellationToken.NONE);
+
+        assertEquals(bundle.size(), entries.size());
+        for (Map.Entry<String, byte[]> file : bundle.entrySet()) {
+            assertArrayEquals(file.getValue(), Files.readAllBytes(new File(targetDir, file.getKey()).toPath()));
+        }
+    }
+
+    @Test
+    public void rejectsEntriesOutsideTheTarget() throws Exception {
+        for (String name : escapingNames()) {
+            File zip = writeZip(slipBundle(name));
+            try {
+                new ParallelUnzipper(2).extract(zip, targetDir, COPY, CancellationToken.NONE);
+                fail("Extracted " + name);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal entry outside of bundle"));
+            }
+            assertNothingEscaped();
+            // Nothing is extracted once the central directory contains a bad entry.
+            assertFalse(new File(targetDir, "index.html").exists());
+        }
+    }
+
+    @Test
+    public void streamingInstallRejectsEntriesOutsideTheBundle() throws Exception {
+        AssetManager assetManager = new AssetManager(BenchmarkFixtures.storage(root));
+        for (String name : escapingNames()) {
+            InputStream zip = new ByteArrayInputStream(BenchmarkFixtures.zip(slipBundle(name)));
+            try {
+                assetManager.installFromStream(zip, "bundle", null, null, CancellationToken.NONE);
+                fail("Installed " + name);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Illegal entry outside of bundle"));
+            }
+            assertNothingEscaped();
+            assertTrue(assetManager.getAssetList().isEmpty());
+        }
+    }
+
+    @Test
+    public void checkPathNormalizesSeparators() throws Exception {
+        assertEquals("assets/app.js", ParallelUnzipper.checkPath("assets\\app.js"));
+        assertEquals("a/..b/c..", ParallelUnzipper.checkPath("a/..b/c.."));
+    }
+
+    private String[] escapingNames() {
+        return new String[] {
+            "../evil.txt",
+            "assets/../../evil.txt",
+            "..",
+            "assets/..",
+            "..\\evil.txt",
+            "assets\\..\\..\\evil.txt",
+            new File(root, "evil.txt").getAbsolutePath(),
+            "/evil.txt",
+        };
+    }
+
+    private void assertNothingEscaped() {
+        assertFalse(new File(root, "evil.txt").exists());
+        assertFalse(new File(root, "bundles/evil.txt").exists());
+        assertFalse(new File(root, "files/evil.txt").exists());
+        assertFalse(new File(root, "files/capacitor_dev_server_assets/evil.txt").exists());
+    }
+
+    private static Map<String, byte[]> slipBundle(String name) {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("index.html", "<!doctype html>".getBytes());
+        files.put(name, "outside".getBytes());
+        return files;
+    }
+
+    private File writeZip(Map<String, byte[]> files) throws IOException {
+        File zip = new File(root, "bundle.zip");
+        try (OutputStream out = new FileOutputStream(zip)) {
+            out.write(BenchmarkFixtures.zip(files));
+        }
+        return zip;
+    }
+}
@@ -0,0 +1,74 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class TaskSchedulerTest {
+
+    @Test
+    public void pluginCapAppliesAfterAnEarlierCaller() throws Exception {
+        // A prefetch job or a sweep may run before the plugin loads.
+        TaskScheduler early = TaskScheduler.shared();
+        TaskScheduler configured = TaskScheduler.shared(4);
+        assertSame(early, configured);
+
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 4; i++) {
+                configured.execute(TaskScheduler.PRIORITY_NORMAL, () -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            TaskScheduler.shared(TaskScheduler.DEFAULT_MAX_CONCURRENT);
+        }
+    }
+
+    @Test
+    public void resubmitAfterCancelWaitsForTheCancelledJob() throws Exception {
+        TaskScheduler scheduler = new TaskScheduler(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean firstRunning = new AtomicBoolean();
+        TaskScheduler.Task<String> first = scheduler.submit("key", "url", null, TaskScheduler.PRIORITY_NORMAL, (token) -> {
+            firstRunning.set(true);
+            started.countDown();
+            // Ignores the token, like a job blocked in a write that cannot be interrupted.
+            release.await();
+            firstRunning.set(false);
+            return "first";
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        first.cancel();
+
+        AtomicBoolean overlapped = new AtomicBoolean();
+        TaskScheduler.Task<String> second = scheduler.submit("key", "url", null, TaskScheduler.PRIORITY_NORMAL, (token) -> {
+            overlapped.set(firstRunning.get());
+            return "second";
+        });
+        assertNotSame(first, second);
+        assertSame(second, scheduler.submit("key", "url", null, TaskScheduler.PRIORITY_NORMAL, (token) -> "third"));
+        assertTrue(first.future.isCompletedExceptionally());
+        assertFalse(second.future.isDone());
+
+        release.countDown();
+        assertEquals("second", second.future.get(5, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+    }
+}
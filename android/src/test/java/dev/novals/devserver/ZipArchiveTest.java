@@ -0,0 +1,172 @@
+package dev.novals.devserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipArchiveTest {
+
+    private static final int EOCD_SIZE = 22;
+
+    private File root;
+    private byte[] text;
+    private byte[] binary;
+
+    @Before
+    public void setUp() throws Exception {
+        root = BenchmarkFixtures.tempDir("devserver-zip");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            sb.append("export const value").append(i).append(" = ").append(i).append(";\n");
+        }
+        text = sb.toString().getBytes("UTF-8");
+        binary = new byte[50_000];
+        new Random(1).nextBytes(binary);
+    }
+
+    @After
+    public void tearDown() {
+        BenchmarkFixtures.deleteRecursive(root);
+    }
+
+    @Test
+    public void storedMemberSlices() throws Exception {
+        ZipArchive archive = ZipArchive.open(write(archive()));
+        ZipArchive.Member member = archive.get("assets/image.bin");
+        assertEquals(ZipArchive.METHOD_STORED, member.method);
+
+        assertArrayEquals(binary, read(archive.open(member, 0, member.size)));
+        assertArrayEquals(Arrays.copyOfRange(binary, 1000, 1500), read(archive.open(member, 1000, 500)));
+        assertArrayEquals(Arrays.copyOfRange(binary, binary.length - 10, binary.length), read(archive.open(member, binary.length - 10, 10)));
+    }
+
+    @Test
+    public void deflatedMemberSlices() throws Exception {
+        ZipArchive archive = ZipArchive.open(write(archive()));
+        ZipArchive.Member member = archive.get("assets/app.js");
+        assertEquals(ZipArchive.METHOD_DEFLATED, member.method);
+        assertTrue(member.compressedSize < member.size);
+
+        assertArrayEquals(text, read(archive.open(member, 0, member.size)));
+        assertArrayEquals(Arrays.copyOfRange(text, 70_000, 70_100), read(archive.open(member, 70_000, 100)));
+    }
+
+    @Test
+    public void deflatedMemberIsAValidGzipFrame() throws Exception {
+        ZipArchive archive = ZipArchive.open(write(archive()));
+        ZipArchive.Member member = archive.get("assets/app.js");
+        long length = ZipArchive.gzipLength(member);
+
+        byte[] gzip = read(archive.openGzip(member, 0, length));
+        assertEquals(length, gzip.length);
+        assertArrayEquals(text, read(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+
+        // Ranges across the header, the deflate data and the trailer line up with the whole frame.
+        assertArrayEquals(Arrays.copyOfRange(gzip, 0, 4), read(archive.openGzip(member, 0, 4)));
+        assertArrayEquals(Arrays.copyOfRange(gzip, 5, 500), read(archive.openGzip(member, 5, 495)));
+        assertArrayEquals(Arrays.copyOfRange(gzip, gzip.length - 12, gzip.length), read(archive.openGzip(member, length - 12, 12)));
+    }
+
+    @Test
+    public void zip64IsRejected() throws Exception {
+        byte[] zip = archive();
+        // A ZIP64 archive keeps its counts in the ZIP64 record and marks the classic fields 0xffff.
+        ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).putShort(zip.length - EOCD_SIZE + 10, (short) 0xffff);
+        assertRejected(zip, "ZIP64");
+    }
+
+    @Test
+    public void encryptedEntryIsRejected() throws Exception {
+        byte[] zip = archive();
+        ByteBuffer buffer = ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN);
+        int cen = buffer.getInt(zip.length - EOCD_SIZE + 16);
+        buffer.putShort(cen + 8, (short) (buffer.getShort(cen + 8) | 1));
+        assertRejected(zip, "Encrypted");
+    }
+
+    @Test
+    public void sharedArchiveIsReusedUntilReplaced() throws Exception {
+        File file = write(archive());
+        ZipArchive first = ZipArchive.shared(file);
+        assertSame(first, ZipArchive.shared(file));
+
+        write(archive());
+        file.setLastModified(file.lastModified() + 5_000);
+        assertNotSame(first, ZipArchive.shared(file));
+    }
+
+    private void assertRejected(byte[] zip, String reason) throws IOException {
+        try {
+            ZipArchive.open(write(zip));
+            fail("Opened an archive with " + reason);
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(reason));
+        }
+    }
+
+    private byte[] archive() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("index.html"));
+            zip.write("<!doctype html>".getBytes("UTF-8"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("assets/app.js"));
+            zip.write(text);
+            zip.closeEntry();
+
+            ZipEntry stored = new ZipEntry("assets/image.bin");
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(binary.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(binary);
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private File write(byte[] zip) throws IOException {
+        File file = new File(root, "bundle.zip");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(zip);
+        }
+        return file;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import type { PluginListenerHandle } from '@capacitor/core';
+
 export interface ServerOptions {
   /**
    * The URL of the remote dev server.
@@ -29,6 +31,85 @@ export interface SyncOptions {
    * @default 'production'
    */
   channel?: string;
+  /**
+   * Ask the server even if the last answer is still fresh or the server asked to retry later.
+   * @default false
+   */
+  force?: boolean;
+  /**
+   * Apply the new bundle by swapping the served root and reloading only the WebView,
+   * when the bundle server is already active. Falls back to recreating the activity.
+   * @default false
+   */
+  hotSwap?: boolean;
+}
+
+/**
+ * Metadata recorded when a bundle is installed.
+ */
+export interface BundleInfo {
+  /**
+   * The bundle (folder) name.
+   */
+  name: string;
+  /**
+   * Directory containing `index.html`, relative to the bundle ("" for its root).
+   */
+  webRoot: string;
+  /**
+   * Number of files in the bundle.
+   */
+  fileCount: number;
+  /**
+   * Total size of the files in bytes.
+   */
+  totalSize: number;
+  /**
+   * SHA-256 over the paths and hashes of all files.
+   */
+  hash?: string;
+  /**
+   * Install time in milliseconds since the epoch.
+   */
+  installedAt: number;
+  /**
+   * Last time the bundle was applied or launched, in milliseconds since the epoch.
+   */
+  lastUsedAt: number;
+  /**
+   * The URL the bundle was installed from.
+   */
+  sourceUrl?: string;
+}
+
+/**
+ * Options for background prefetching.
+ */
+export interface PrefetchOptions {
+  /**
+   * The URL of the update server.
+   */
+  url: string;
+  /**
+   * The deployment channel to check.
+   * @default 'production'
+   */
+  channel?: string;
+  /**
+   * Only run on an unmetered network (e.g. Wi-Fi).
+   * @default true
+   */
+  requiresUnmetered?: boolean;
+  /**
+   * Only run while the device is charging.
+   * @default false
+   */
+  requiresCharging?: boolean;
+  /**
+   * Only run while the device is idle.
+   * @default false
+   */
+  requiresIdle?: boolean;
 }
 
 /**
@@ -51,6 +132,194 @@ export interface CheckUpdateResult {
    * The URL to download the ZIP bundle from.
    */
   downloadUrl?: string;
+  /**
+   * The URL of the per-file hash manifest, when the server supports delta updates.
+   */
+  manifestUrl?: string;
+  /**
+   * Bytes of the latest bundle already present in the active bundle (delta updates only).
+   */
+  bytesSaved?: number;
+  /**
+   * Bytes that still need to be downloaded (delta updates only).
+   */
+  downloadSize?: number;
+  /**
+   * Whether the answer came from the local cache (still fresh, not modified, or server back-off).
+   */
+  fromCache?: boolean;
+}
+
+/**
+ * Result of a sync.
+ */
+export interface SyncResult {
+  /**
+   * Whether a new bundle was downloaded and applied.
+   */
+  updated: boolean;
+  /**
+   * Bytes reused from the active bundle instead of being downloaded (delta updates only).
+   */
+  bytesSaved?: number;
+  /**
+   * Whether the update check was answered from the local cache.
+   */
+  fromCache?: boolean;
+  /**
+   * Whether the new bundle was hot-swapped instead of recreating the activity.
+   */
+  hotSwapped?: boolean;
+}
+
+export interface StageBundleResult {
+  /**
+   * The staged bundle.
+   */
+  assetName: string;
+  /**
+   * Where the staged bundle is served next to the active one, e.g. `http://my-bundle.localhost:8080`.
+   * Absent if the name is too long for a host name.
+   */
+  url?: string;
+}
+
+/**
+ * Startup timings of the current process.
+ */
+export interface StartupTimings {
+  /**
+   * Duration of each startup phase in milliseconds (e.g. `capacitorConfig`, `pluginLoad`, `serverStart`, `firstRequestWait`).
+   */
+  phases: Record<string, number>;
+  /**
+   * Milliseconds from process start to key moments (e.g. `configReady`, `pluginLoaded`, `serverReady`).
+   */
+  marks: Record<string, number>;
+}
+
+export interface LatencyStats {
+  /**
+   * Samples recorded.
+   */
+  count: number;
+  /**
+   * Median in milliseconds (within 25%).
+   */
+  p50: number;
+  /**
+   * 95th percentile in milliseconds.
+   */
+  p95: number;
+  /**
+   * 99th percentile in milliseconds.
+   */
+  p99: number;
+  /**
+   * Longest sample in milliseconds.
+   */
+  max: number;
+}
+
+export interface StageStats extends LatencyStats {
+  /**
+   * Times the stage failed.
+   */
+  failures: number;
+  /**
+   * Bytes transferred, for `download`.
+   */
+  bytes?: number;
+  /**
+   * Bytes per second over the time spent in the stage.
+   */
+  throughput?: number;
+}
+
+export interface ServerStats {
+  /**
+   * Requests answered.
+   */
+  requests: number;
+  /**
+   * Body bytes sent.
+   */
+  bytesServed: number;
+  /**
+   * `304` answers.
+   */
+  notModified: number;
+  /**
+   * `401` and `403` answers: live-reload requests without a valid dev token.
+   */
+  forbidden: number;
+  /**
+   * `404` answers.
+   */
+  notFound: number;
+  /**
+   * `5xx` answers.
+   */
+  serverErrors: number;
+  /**
+   * Latency by kind of file: `document`, `script`, `style`, `image`, `font`, `other`.
+   */
+  routes: Record<string, LatencyStats>;
+  /**
+   * Open connections, while the server runs.
+   */
+  activeConnections?: number;
+  /**
+   * Small files answered from memory by the running server.
+   */
+  cacheHits?: number;
+  /**
+   * Small files the running server had to read from disk.
+   */
+  cacheMisses?: number;
+  /**
+   * `cacheHits / (cacheHits + cacheMisses)`.
+   */
+  cacheHitRatio?: number;
+}
+
+/**
+ * Metrics of the local server and the update pipeline.
+ */
+export interface DevServerStats {
+  /**
+   * When collection started, in milliseconds since the epoch.
+   */
+  since: number;
+  /**
+   * Requests answered by the local server.
+   */
+  server: ServerStats;
+  /**
+   * Time spent in each update stage. In streaming mode, extraction and hashing overlap the
+   * transfer and are counted under `download`; `extract` is only reported for `"parallel"` and `"archive"` installs.
+   */
+  pipeline: {
+    check: StageStats;
+    download: StageStats;
+    verify: StageStats;
+    extract: StageStats;
+    apply: StageStats;
+  };
+}
+
+/**
+ * Files pushed to the running bundle in development mode (see `devToken`).
+ */
+export interface FilesChangedEvent {
+  /**
+   * Bundle paths written or deleted by the push.
+   */
+  paths: string[];
+  /**
+   * Increases with every push since the server started.
+   */
+  version: number;
 }
 
 export interface DevServerPlugin {
@@ -73,20 +342,36 @@ export interface DevServerPlugin {
 
   /**
    * Download a ZIP asset bundle and extract it locally.
+   * With `overwrite`, a download into the active bundle is rejected instead of replacing it.
    */
   downloadAsset(options: { url: string; overwrite?: boolean; checksum?: string }): Promise<void>;
+  /**
+   * Cancel in-flight downloads and update checks matching the URL and/or asset name.
+   * Without options every running task is cancelled. The cancelled calls reject with code `CANCELLED`.
+   */
+  cancelDownload(options?: { url?: string; assetName?: string }): Promise<{ cancelled: number }>;
   /**
    * List all locally available asset bundles.
    */
-  getAssetList(): Promise<{ assets: string[] }>;
+  getAssetList(): Promise<{ assets: string[]; bundles: BundleInfo[] }>;
   /**
    * Apply a specific asset bundle by its name/folder.
+   * With `hotSwap`, only the WebView reloads when the bundle server is already active.
    */
-  applyAsset(options: { assetName: string; persist?: boolean }): Promise<void>;
+  applyAsset(options: { assetName: string; persist?: boolean; hotSwap?: boolean }): Promise<void>;
   /**
    * Remove a locally stored asset bundle.
    */
   removeAsset(options: { assetName: string }): Promise<void>;
+  /**
+   * Keep a bundle warm next to the active one, e.g. the other arm of an A/B test or the version
+   * to roll back to. The local server indexes it, loads its documents, scripts and styles into
+   * memory and serves it on its own `<name>.localhost` host; names that are not lower-case DNS
+   * labels are hex-encoded there, so use the returned `url`. A later `applyAsset` with `hotSwap`
+   * switches to it instantly, and the replaced bundle stays staged for the way back.
+   * Requires `serveMode` `"server"`.
+   */
+  stageBundle(options: { assetName: string }): Promise<StageBundleResult>;
   /**
    * Revert to the built-in assets from the binary.
    */
@@ -99,6 +384,32 @@ export interface DevServerPlugin {
   checkForUpdate(options: SyncOptions): Promise<CheckUpdateResult>;
   /**
    * Orchestrates the full update cycle (check, download, apply, and reload).
+   * Fails if the update has the name of the active bundle: updates must use a new bundle id.
+   */
+  sync(options: SyncOptions): Promise<SyncResult>;
+  /**
+   * Schedule a background job that downloads the next bundle when the constraints are met.
+   * The bundle becomes active on the next cold start, without reloading the running app.
+   */
+  prefetch(options: PrefetchOptions): Promise<{ scheduled: boolean; pendingAsset?: string }>;
+  /**
+   * Report how long each startup phase of the current process took.
+   */
+  getStartupTimings(): Promise<StartupTimings>;
+  /**
+   * Report request and update-pipeline metrics collected since the process started (or the last reset).
+   * With `reset`, the counters start over after this snapshot.
+   */
+  getStats(options?: { reset?: boolean }): Promise<DevServerStats>;
+  /**
+   * Receive a stats snapshot every `statsIntervalMs` (see Configuration).
+   */
+  addListener(eventName: 'statsUpdate', listenerFunc: (stats: DevServerStats) => void): Promise<PluginListenerHandle>;
+  /**
+   * Receive each push of files into the running bundle when `devToken` is set.
    */
-  sync(options: SyncOptions): Promise<{ updated: boolean }>;
+  addListener(
+    eventName: 'filesChanged',
+    listenerFunc: (event: FilesChangedEvent) => void,
+  ): Promise<PluginListenerHandle>;
 }
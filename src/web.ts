@@ -1,6 +1,15 @@
 import { WebPlugin } from '@capacitor/core';
 
-import type { DevServerPlugin, ServerOptions } from './definitions';
+import type {
+  BundleInfo,
+  DevServerPlugin,
+  DevServerStats,
+  PrefetchOptions,
+  ServerOptions,
+  StageBundleResult,
+  StartupTimings,
+  SyncResult,
+} from './definitions';
 
 export class DevServerWeb extends WebPlugin implements DevServerPlugin {
   private readonly SESSION_KEY = 'cap_server_url_session';
@@ -54,12 +63,17 @@ export class DevServerWeb extends WebPlugin implements DevServerPlugin {
     console.warn('downloadAsset is not supported on web', options);
   }
 
-  async getAssetList(): Promise<{ assets: string[] }> {
+  async cancelDownload(options?: { url?: string; assetName?: string }): Promise<{ cancelled: number }> {
+    console.warn('cancelDownload is not supported on web', options);
+    return { cancelled: 0 };
+  }
+
+  async getAssetList(): Promise<{ assets: string[]; bundles: BundleInfo[] }> {
     console.warn('getAssetList is not supported on web');
-    return { assets: [] };
+    return { assets: [], bundles: [] };
   }
 
-  async applyAsset(options: { assetName: string; persist?: boolean }): Promise<void> {
+  async applyAsset(options: { assetName: string; persist?: boolean; hotSwap?: boolean }): Promise<void> {
     console.warn('applyAsset is not supported on web', options);
   }
 
@@ -67,6 +81,11 @@ export class DevServerWeb extends WebPlugin implements DevServerPlugin {
     console.warn('removeAsset is not supported on web', options);
   }
 
+  async stageBundle(options: { assetName: string }): Promise<StageBundleResult> {
+    console.warn('stageBundle is not supported on web', options);
+    return { assetName: options.assetName, url: '' };
+  }
+
   async restoreDefaultAsset(): Promise<void> {
     console.warn('restoreDefaultAsset is not supported on web');
   }
@@ -76,8 +95,28 @@ export class DevServerWeb extends WebPlugin implements DevServerPlugin {
     return { isUpdateAvailable: false };
   }
 
-  async sync(options: { url: string; channel?: string }): Promise<{ updated: boolean }> {
+  async sync(options: { url: string; channel?: string }): Promise<SyncResult> {
     console.warn('sync is not supported on web', options);
     return { updated: false };
   }
+
+  async prefetch(options: PrefetchOptions): Promise<{ scheduled: boolean; pendingAsset?: string }> {
+    console.warn('prefetch is not supported on web', options);
+    return { scheduled: false };
+  }
+
+  async getStartupTimings(): Promise<StartupTimings> {
+    console.warn('getStartupTimings is not supported on web');
+    return { phases: {}, marks: {} };
+  }
+
+  async getStats(): Promise<DevServerStats> {
+    console.warn('getStats is not supported on web');
+    const stage = { count: 0, p50: 0, p95: 0, p99: 0, max: 0, failures: 0 };
+    return {
+      since: Date.now(),
+      server: { requests: 0, bytesServed: 0, notModified: 0, forbidden: 0, notFound: 0, serverErrors: 0, routes: {} },
+      pipeline: { check: stage, download: stage, verify: stage, extract: stage, apply: stage },
+    };
+  }
 }